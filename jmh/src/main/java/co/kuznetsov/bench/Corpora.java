@@ -0,0 +1,121 @@
+package co.kuznetsov.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generated documents of different shapes, deterministic for a given seed.
+ */
+public enum Corpora {
+    /**
+     * Elements nested a few hundred levels deep, repeatedly.
+     */
+    DEEP {
+        void generate(StringBuilder sb, Random rnd) {
+            sb.append("<root>");
+            for (int k = 0; k < 40; k++) {
+                int depth = 100 + rnd.nextInt(150);
+                for (int i = 0; i < depth; i++)
+                    sb.append("<level").append(i % 10).append('>');
+                sb.append("leaf").append(k);
+                for (int i = depth - 1; i >= 0; i--)
+                    sb.append("</level").append(i % 10).append('>');
+            }
+            sb.append("</root>");
+        }
+    },
+    /**
+     * Empty elements carrying many attributes.
+     */
+    ATTRIBUTES {
+        void generate(StringBuilder sb, Random rnd) {
+            sb.append("<rows>");
+            for (int k = 0; k < 2000; k++) {
+                sb.append("<row id=\"").append(k).append('"');
+                for (int i = 0; i < 12; i++)
+                    sb.append(" attr").append(i).append("=\"").append(rnd.nextInt(1000000)).append('"');
+                sb.append(" name='").append(word(rnd)).append("'/>\n");
+            }
+            sb.append("</rows>");
+        }
+    },
+    /**
+     * Long text and CDATA sections with a little markup.
+     */
+    TEXT {
+        void generate(StringBuilder sb, Random rnd) {
+            sb.append("<articles>");
+            for (int k = 0; k < 200; k++) {
+                sb.append("<article><title>").append(word(rnd)).append("</title><body>");
+                for (int i = 0; i < 120; i++)
+                    sb.append(word(rnd)).append(i % 15 == 14 ? ".\n" : " ");
+                sb.append("</body><code><![CDATA[");
+                for (int i = 0; i < 40; i++)
+                    sb.append("if (a < b && c > d) { x[").append(i).append("] = \"").append(word(rnd)).append("\"; }\n");
+                sb.append("]]></code></article>\n");
+            }
+            sb.append("</articles>");
+        }
+    },
+    /**
+     * Text and attribute values full of character and numeric entities.
+     */
+    ENTITIES {
+        void generate(StringBuilder sb, Random rnd) {
+            String[] entities = {"&lt;", "&gt;", "&amp;", "&quot;", "&apos;", "&#169;", "&#x20AC;", "&#65;"};
+            sb.append("<doc>");
+            for (int k = 0; k < 2000; k++) {
+                sb.append("<p title=\"").append(entities[rnd.nextInt(entities.length)]).append(word(rnd)).append("\">");
+                for (int i = 0; i < 20; i++)
+                    sb.append(word(rnd)).append(entities[rnd.nextInt(entities.length)]);
+                sb.append("</p>\n");
+            }
+            sb.append("</doc>");
+        }
+    },
+    /**
+     * Many small documents, one per operation, like messages off a queue.
+     */
+    SMALL {
+        void generate(StringBuilder sb, Random rnd) {
+            sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<order id=\"").append(rnd.nextInt(1000000))
+                    .append("\"><customer>").append(word(rnd)).append("</customer><item sku=\"")
+                    .append(rnd.nextInt(10000)).append("\" qty=\"").append(1 + rnd.nextInt(9))
+                    .append("\"/><total>").append(rnd.nextInt(100000)).append(".").append(rnd.nextInt(100))
+                    .append("</total></order>");
+        }
+
+        @Override
+        int count() {
+            return 1024;
+        }
+    };
+
+    abstract void generate(StringBuilder sb, Random rnd);
+
+    /**
+     * Number of documents generated, each benchmark operation parses one of them.
+     */
+    int count() {
+        return 1;
+    }
+
+    public byte[][] documents() {
+        Random rnd = new Random(42);
+        byte[][] docs = new byte[count()][];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < docs.length; i++) {
+            sb.setLength(0);
+            generate(sb, rnd);
+            docs[i] = sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        return docs;
+    }
+
+    private static String word(Random rnd) {
+        char[] w = new char[3 + rnd.nextInt(8)];
+        for (int i = 0; i < w.length; i++)
+            w[i] = (char) ('a' + rnd.nextInt(26));
+        return new String(w);
+    }
+}
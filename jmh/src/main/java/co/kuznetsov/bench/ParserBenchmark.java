@@ -0,0 +1,198 @@
+package co.kuznetsov.bench;
+
+import co.kuznetsov.xml.DocHandler;
+import co.kuznetsov.xml.QDCursor;
+import co.kuznetsov.xml.QDParser;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QDParser against the JDK's SAX and StAX parsers, one document per operation.
+ * <p>
+ * Besides operations per second the {@link Counters} report MB/s and events/s, and with the GC profiler
+ * (enabled by the jmh task) gc.alloc.rate.norm is the garbage per document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"DEEP", "ATTRIBUTES", "TEXT", "ENTITIES", "SMALL"})
+    public Corpora shape;
+
+    private byte[][] docs;
+    private ByteBuffer[] buffers;
+    private int next;
+
+    private QDParser parser;
+    private QDCursor cursor;
+    private CountingHandler handler;
+    private SAXParser sax;
+    private CountingSaxHandler saxHandler;
+    private XMLInputFactory stax;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public double megabytes;
+        public long events;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+            events = 0;
+        }
+
+        void add(int bytes, long events) {
+            this.megabytes += bytes / 1e6;
+            this.events += events;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        docs = shape.documents();
+        buffers = new ByteBuffer[docs.length];
+        for (int i = 0; i < docs.length; i++)
+            buffers[i] = ByteBuffer.wrap(docs[i]);
+        parser = new QDParser(1024);
+        cursor = new QDCursor(parser);
+        handler = new CountingHandler();
+        sax = SAXParserFactory.newInstance().newSAXParser();
+        saxHandler = new CountingSaxHandler();
+        stax = XMLInputFactory.newInstance();
+    }
+
+    @Benchmark
+    public long qdParserBytes(Counters counters) throws Exception {
+        ByteBuffer in = buffers[next++ % buffers.length];
+        in.rewind();
+        handler.events = 0;
+        parser.parse(handler, in);
+        counters.add(in.limit(), handler.events);
+        return handler.events;
+    }
+
+    @Benchmark
+    public long qdParserReader(Counters counters) throws Exception {
+        byte[] doc = docs[next++ % docs.length];
+        handler.events = 0;
+        parser.parse(handler, new InputStreamReader(new ByteArrayInputStream(doc), StandardCharsets.UTF_8));
+        counters.add(doc.length, handler.events);
+        return handler.events;
+    }
+
+    @Benchmark
+    public long qdCursor(Counters counters) throws Exception {
+        ByteBuffer in = buffers[next++ % buffers.length];
+        in.rewind();
+        long events = 0;
+        cursor.open(in);
+        while (cursor.next() != QDCursor.END_DOCUMENT)
+            events++;
+        counters.add(in.limit(), events);
+        return events;
+    }
+
+    @Benchmark
+    public long sax(Counters counters) throws Exception {
+        byte[] doc = docs[next++ % docs.length];
+        saxHandler.events = 0;
+        sax.parse(new ByteArrayInputStream(doc), saxHandler);
+        counters.add(doc.length, saxHandler.events);
+        return saxHandler.events;
+    }
+
+    @Benchmark
+    public long stax(Counters counters) throws Exception {
+        byte[] doc = docs[next++ % docs.length];
+        XMLStreamReader r = stax.createXMLStreamReader(new ByteArrayInputStream(doc));
+        long events = 0;
+        while (r.hasNext()) {
+            int e = r.next();
+            if (e == XMLStreamConstants.START_ELEMENT)
+                events += 1 + r.getAttributeCount();
+            else if (e == XMLStreamConstants.END_ELEMENT || e == XMLStreamConstants.CHARACTERS
+                    || e == XMLStreamConstants.CDATA)
+                events++;
+        }
+        r.close();
+        counters.add(doc.length, events);
+        return events;
+    }
+
+    static final class CountingHandler implements DocHandler {
+        long events;
+
+        public void startElement(StringBuilder tag) {
+            events++;
+        }
+
+        public void endElement(StringBuilder tag) {
+            events++;
+        }
+
+        public void startDocument() {
+        }
+
+        public void endDocument() {
+        }
+
+        public void text(StringBuilder str) {
+            events++;
+        }
+
+        public void attributeName(StringBuilder name) {
+        }
+
+        public void attributeValue(StringBuilder value) {
+            events++;
+        }
+    }
+
+    static final class CountingSaxHandler extends DefaultHandler {
+        long events;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            events += 1 + attributes.getLength();
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            events++;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            events++;
+        }
+    }
+}
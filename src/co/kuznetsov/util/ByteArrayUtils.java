@@ -1,20 +1,305 @@
 package co.kuznetsov.util;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Primitives in byte arrays. The plain names read and write big-endian, the LE ones little-endian.
+ * <p>
+ * Single values go through byte array view VarHandles, so every access is one bounds check and one load
+ * or store, unaligned offsets are fine. Varints are LEB128, 7 bits per byte starting with the lowest ones,
+ * signed values are zigzag encoded first to keep small negative numbers short.
+ */
 public class ByteArrayUtils {
 
+    private final static VarHandle SHORT_BE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private final static VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private final static VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private final static VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private final static VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private final static VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private final static VarHandle FLOAT_BE = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+    private final static VarHandle FLOAT_LE = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+    private final static VarHandle DOUBLE_BE = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.BIG_ENDIAN);
+    private final static VarHandle DOUBLE_LE = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // Longest varint
+    public final static int MAX_VAR_INT_BYTES = 5;
+    public final static int MAX_VAR_LONG_BYTES = 10;
+
+    public static short getShort(byte[] data, int offset) {
+        return (short) SHORT_BE.get(data, offset);
+    }
+
+    public static short getShortLE(byte[] data, int offset) {
+        return (short) SHORT_LE.get(data, offset);
+    }
+
     public static int getInt(byte[] data, int offset) {
-        return (((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16) |
-                ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff));
+        return (int) INT_BE.get(data, offset);
+    }
+
+    public static int getIntLE(byte[] data, int offset) {
+        return (int) INT_LE.get(data, offset);
     }
 
     public static long getLong(byte[] data, int offset) {
-        return (((long)data[offset] << 56) +
-                ((long)(data[offset + 1] & 255) << 48) +
-                ((long)(data[offset + 2] & 255) << 40) +
-                ((long)(data[offset + 3] & 255) << 32) +
-                ((long)(data[offset + 4] & 255) << 24) +
-                ((data[offset + 5] & 255) << 16) +
-                ((data[offset + 6] & 255) <<  8) +
-                (data[offset + 7] & 255));
+        return (long) LONG_BE.get(data, offset);
+    }
+
+    public static long getLongLE(byte[] data, int offset) {
+        return (long) LONG_LE.get(data, offset);
+    }
+
+    public static float getFloat(byte[] data, int offset) {
+        return (float) FLOAT_BE.get(data, offset);
+    }
+
+    public static float getFloatLE(byte[] data, int offset) {
+        return (float) FLOAT_LE.get(data, offset);
+    }
+
+    public static double getDouble(byte[] data, int offset) {
+        return (double) DOUBLE_BE.get(data, offset);
+    }
+
+    public static double getDoubleLE(byte[] data, int offset) {
+        return (double) DOUBLE_LE.get(data, offset);
+    }
+
+    public static void putShort(byte[] data, int offset, short value) {
+        SHORT_BE.set(data, offset, value);
+    }
+
+    public static void putShortLE(byte[] data, int offset, short value) {
+        SHORT_LE.set(data, offset, value);
+    }
+
+    public static void putInt(byte[] data, int offset, int value) {
+        INT_BE.set(data, offset, value);
+    }
+
+    public static void putIntLE(byte[] data, int offset, int value) {
+        INT_LE.set(data, offset, value);
+    }
+
+    public static void putLong(byte[] data, int offset, long value) {
+        LONG_BE.set(data, offset, value);
+    }
+
+    public static void putLongLE(byte[] data, int offset, long value) {
+        LONG_LE.set(data, offset, value);
+    }
+
+    /**
+     * Writes the raw bits of the value, NaNs are written as they are.
+     */
+    public static void putFloat(byte[] data, int offset, float value) {
+        FLOAT_BE.set(data, offset, value);
+    }
+
+    public static void putFloatLE(byte[] data, int offset, float value) {
+        FLOAT_LE.set(data, offset, value);
+    }
+
+    public static void putDouble(byte[] data, int offset, double value) {
+        DOUBLE_BE.set(data, offset, value);
+    }
+
+    public static void putDoubleLE(byte[] data, int offset, double value) {
+        DOUBLE_LE.set(data, offset, value);
+    }
+
+    /**
+     * Writes length values of src starting at srcOffset into data at the offset, 2 bytes each.
+     */
+    public static void putShorts(byte[] data, int offset, short[] src, int srcOffset, int length, ByteOrder order) {
+        checkRange(data, offset, length, Short.BYTES);
+        VarHandle h = order == ByteOrder.BIG_ENDIAN ? SHORT_BE : SHORT_LE;
+        for (int i = 0; i < length; i++)
+            h.set(data, offset + i * Short.BYTES, src[srcOffset + i]);
+    }
+
+    /**
+     * Reads length values from data at the offset into dst starting at dstOffset, 2 bytes each.
+     */
+    public static void getShorts(byte[] data, int offset, short[] dst, int dstOffset, int length, ByteOrder order) {
+        checkRange(data, offset, length, Short.BYTES);
+        VarHandle h = order == ByteOrder.BIG_ENDIAN ? SHORT_BE : SHORT_LE;
+        for (int i = 0; i < length; i++)
+            dst[dstOffset + i] = (short) h.get(data, offset + i * Short.BYTES);
+    }
+
+    public static void putInts(byte[] data, int offset, int[] src, int srcOffset, int length, ByteOrder order) {
+        checkRange(data, offset, length, Integer.BYTES);
+        VarHandle h = order == ByteOrder.BIG_ENDIAN ? INT_BE : INT_LE;
+        for (int i = 0; i < length; i++)
+            h.set(data, offset + i * Integer.BYTES, src[srcOffset + i]);
+    }
+
+    public static void getInts(byte[] data, int offset, int[] dst, int dstOffset, int length, ByteOrder order) {
+        checkRange(data, offset, length, Integer.BYTES);
+        VarHandle h = order == ByteOrder.BIG_ENDIAN ? INT_BE : INT_LE;
+        for (int i = 0; i < length; i++)
+            dst[dstOffset + i] = (int) h.get(data, offset + i * Integer.BYTES);
+    }
+
+    public static void putLongs(byte[] data, int offset, long[] src, int srcOffset, int length, ByteOrder order) {
+        checkRange(data, offset, length, Long.BYTES);
+        VarHandle h = order == ByteOrder.BIG_ENDIAN ? LONG_BE : LONG_LE;
+        for (int i = 0; i < length; i++)
+            h.set(data, offset + i * Long.BYTES, src[srcOffset + i]);
+    }
+
+    public static void getLongs(byte[] data, int offset, long[] dst, int dstOffset, int length, ByteOrder order) {
+        checkRange(data, offset, length, Long.BYTES);
+        VarHandle h = order == ByteOrder.BIG_ENDIAN ? LONG_BE : LONG_LE;
+        for (int i = 0; i < length; i++)
+            dst[dstOffset + i] = (long) h.get(data, offset + i * Long.BYTES);
+    }
+
+    public static void putFloats(byte[] data, int offset, float[] src, int srcOffset, int length, ByteOrder order) {
+        checkRange(data, offset, length, Float.BYTES);
+        VarHandle h = order == ByteOrder.BIG_ENDIAN ? FLOAT_BE : FLOAT_LE;
+        for (int i = 0; i < length; i++)
+            h.set(data, offset + i * Float.BYTES, src[srcOffset + i]);
+    }
+
+    public static void getFloats(byte[] data, int offset, float[] dst, int dstOffset, int length, ByteOrder order) {
+        checkRange(data, offset, length, Float.BYTES);
+        VarHandle h = order == ByteOrder.BIG_ENDIAN ? FLOAT_BE : FLOAT_LE;
+        for (int i = 0; i < length; i++)
+            dst[dstOffset + i] = (float) h.get(data, offset + i * Float.BYTES);
+    }
+
+    public static void putDoubles(byte[] data, int offset, double[] src, int srcOffset, int length, ByteOrder order) {
+        checkRange(data, offset, length, Double.BYTES);
+        VarHandle h = order == ByteOrder.BIG_ENDIAN ? DOUBLE_BE : DOUBLE_LE;
+        for (int i = 0; i < length; i++)
+            h.set(data, offset + i * Double.BYTES, src[srcOffset + i]);
+    }
+
+    public static void getDoubles(byte[] data, int offset, double[] dst, int dstOffset, int length, ByteOrder order) {
+        checkRange(data, offset, length, Double.BYTES);
+        VarHandle h = order == ByteOrder.BIG_ENDIAN ? DOUBLE_BE : DOUBLE_LE;
+        for (int i = 0; i < length; i++)
+            dst[dstOffset + i] = (double) h.get(data, offset + i * Double.BYTES);
+    }
+
+    public static byte[] toByteArray(int[] values, ByteOrder order) {
+        byte[] data = new byte[values.length * Integer.BYTES];
+        putInts(data, 0, values, 0, values.length, order);
+        return data;
+    }
+
+    public static byte[] toByteArray(long[] values, ByteOrder order) {
+        byte[] data = new byte[values.length * Long.BYTES];
+        putLongs(data, 0, values, 0, values.length, order);
+        return data;
+    }
+
+    public static byte[] toByteArray(double[] values, ByteOrder order) {
+        byte[] data = new byte[values.length * Double.BYTES];
+        putDoubles(data, 0, values, 0, values.length, order);
+        return data;
+    }
+
+    /**
+     * Writes the value as an unsigned varint, negative ints take 5 bytes.
+     *
+     * @return the offset right after the last byte written
+     */
+    public static int putVarInt(byte[] data, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            data[offset++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        data[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Reads an unsigned varint at the offset, its length is {@link #varIntSize(int)} of the result.
+     *
+     * @throws IllegalArgumentException if the varint is longer than 5 bytes
+     */
+    public static int getVarInt(byte[] data, int offset) {
+        int b = data[offset];
+        if (b >= 0)
+            return b;
+        int value = b & 0x7F;
+        for (int shift = 7; shift < 35; shift += 7) {
+            b = data[++offset];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint at " + offset);
+    }
+
+    public static int putVarLong(byte[] data, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            data[offset++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        data[offset++] = (byte) value;
+        return offset;
+    }
+
+    public static long getVarLong(byte[] data, int offset) {
+        long b = data[offset];
+        if (b >= 0)
+            return b;
+        long value = b & 0x7F;
+        for (int shift = 7; shift < 70; shift += 7) {
+            b = data[++offset];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint at " + offset);
+    }
+
+    /**
+     * Number of bytes the value takes as a varint, 1 to 5.
+     */
+    public static int varIntSize(int value) {
+        // 7 bits per byte, at least one byte: (bits + 6) / 7 computed as a multiplication
+        int bits = Integer.SIZE - Integer.numberOfLeadingZeros(value | 1);
+        return (bits * 9 + 64) >>> 6;
+    }
+
+    /**
+     * Number of bytes the value takes as a varint, 1 to 10.
+     */
+    public static int varLongSize(long value) {
+        int bits = Long.SIZE - Long.numberOfLeadingZeros(value | 1);
+        return (bits * 9 + 64) >>> 6;
+    }
+
+    /**
+     * Maps signed to unsigned so that numbers of small magnitude stay small: 0, -1, 1, -2 become 0, 1, 2, 3.
+     */
+    public static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    public static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void checkRange(byte[] data, int offset, int length, int size) {
+        if (length < 0 || offset < 0 || offset > data.length - (long) length * size)
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length + " * " + size
+                    + ") out of bounds for length " + data.length);
     }
 }
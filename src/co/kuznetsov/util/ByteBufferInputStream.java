@@ -2,15 +2,18 @@ package co.kuznetsov.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.InvalidMarkException;
+import java.util.Objects;
 
 public class ByteBufferInputStream extends InputStream {
     private ByteBuffer byteBuffer;
 
+    /** Creates an uninitialized stream that cannot be used until {@link #setByteBuffer(ByteBuffer)} is called. */
     public ByteBufferInputStream () {
     }
 
-    /** Creates an uninitialized stream that cannot be used until {@link #setByteBuffer(ByteBuffer)} is called. */
     public ByteBufferInputStream (ByteBuffer byteBuffer) {
         this.byteBuffer = byteBuffer;
     }
@@ -25,17 +28,62 @@ public class ByteBufferInputStream extends InputStream {
 
     public int read () throws IOException {
         if (!byteBuffer.hasRemaining()) return -1;
-        return byteBuffer.get();
+        return byteBuffer.get() & 0xFF;
     }
 
     public int read (byte[] bytes, int offset, int length) throws IOException {
+        Objects.checkFromIndexSize(offset, length, bytes.length);
+        if (length == 0) return 0;
         int count = Math.min(byteBuffer.remaining(), length);
         if (count == 0) return -1;
         byteBuffer.get(bytes, offset, count);
         return count;
     }
 
+    public long skip (long n) throws IOException {
+        if (n <= 0) return 0;
+        int count = (int) Math.min(byteBuffer.remaining(), n);
+        byteBuffer.position(byteBuffer.position() + count);
+        return count;
+    }
+
     public int available () throws IOException {
         return byteBuffer.remaining();
     }
-}
\ No newline at end of file
+
+    /** Writes the remaining bytes without an intermediate copy when the target or the buffer allows it. */
+    public long transferTo (OutputStream out) throws IOException {
+        int count = byteBuffer.remaining();
+        if (out instanceof ByteBufferOutputStream) {
+            ((ByteBufferOutputStream) out).write(byteBuffer);
+        } else if (byteBuffer.hasArray()) {
+            out.write(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), count);
+            byteBuffer.position(byteBuffer.limit());
+        } else {
+            byte[] chunk = new byte[Math.min(count, 8192)];
+            while (byteBuffer.hasRemaining()) {
+                int n = Math.min(chunk.length, byteBuffer.remaining());
+                byteBuffer.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+        return count;
+    }
+
+    public boolean markSupported () {
+        return true;
+    }
+
+    /** Marks the buffer's position, there is no read limit. */
+    public void mark (int readLimit) {
+        byteBuffer.mark();
+    }
+
+    public void reset () throws IOException {
+        try {
+            byteBuffer.reset();
+        } catch (InvalidMarkException e) {
+            throw new IOException("Mark not set");
+        }
+    }
+}
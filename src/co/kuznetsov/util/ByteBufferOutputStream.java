@@ -0,0 +1,164 @@
+package co.kuznetsov.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.util.Objects;
+
+/**
+ * Output stream writing into a chain of buffers taken from a {@link ByteBufferPool}, the counterpart of
+ * {@link ByteBufferInputStream}. It grows by adding a segment, what's written is never copied.
+ * <p>
+ * The result is handed out by {@link #toBuffers()} as read-only views ready for a gathering write,
+ * {@link #release()} then gives the segments back to the pool and the stream can be written again.
+ * Closing the stream does nothing, so the result survives wrappers that close it.
+ * <pre>
+ * try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+ *     ...
+ * }
+ * out.writeTo(channel);
+ * out.release();
+ * </pre>
+ * The instances of ByteBufferOutputStream are non-thread safe.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+    private final ByteBufferPool pool;
+    private final int segmentSize;
+    private ByteBuffer[] segments = new ByteBuffer[4];
+    private int count;
+    private ByteBuffer current;
+    private long size;
+
+    /**
+     * @param segmentSize capacity requested from the pool for every segment
+     */
+    public ByteBufferOutputStream(ByteBufferPool pool, int segmentSize) {
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+        this.pool = pool;
+        this.segmentSize = segmentSize;
+    }
+
+    public void write(int b) {
+        if (current == null || !current.hasRemaining())
+            addSegment();
+        current.put((byte) b);
+        size++;
+    }
+
+    public void write(byte[] bytes, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, bytes.length);
+        size += length;
+        while (length > 0) {
+            if (current == null || !current.hasRemaining())
+                addSegment();
+            int n = Math.min(length, current.remaining());
+            current.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer, advancing its position to the limit.
+     */
+    public void write(ByteBuffer src) {
+        size += src.remaining();
+        while (src.hasRemaining()) {
+            if (current == null || !current.hasRemaining())
+                addSegment();
+            int n = Math.min(src.remaining(), current.remaining());
+            current.put(current.position(), src, src.position(), n);
+            current.position(current.position() + n);
+            src.position(src.position() + n);
+        }
+    }
+
+    /**
+     * Number of bytes written since the stream was created or released.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Read-only views of the written bytes, one per segment, positioned at zero and limited to the bytes written.
+     * They share the segments' memory, so they are valid only until {@link #release()}. Writing more
+     * afterwards doesn't affect them.
+     */
+    public ByteBuffer[] toBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        for (int i = 0; i < count; i++)
+            buffers[i] = segments[i].asReadOnlyBuffer().flip();
+        return buffers;
+    }
+
+    /**
+     * Writes everything to the channel with gathering writes. The channel has to be blocking, a non-blocking one
+     * could accept nothing over and over.
+     *
+     * @return number of bytes written
+     * @throws IllegalBlockingModeException if the channel is in non-blocking mode
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking())
+            throw new IllegalBlockingModeException();
+        ByteBuffer[] buffers = toBuffers();
+        long written = 0;
+        for (int i = 0; i < buffers.length; ) {
+            written += channel.write(buffers, i, buffers.length - i);
+            while (i < buffers.length && !buffers[i].hasRemaining())
+                i++;
+        }
+        return written;
+    }
+
+    /**
+     * Writes everything to another stream, through a heap buffer's array when there is one.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] chunk = null;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer s = segments[i];
+            if (s.hasArray()) {
+                out.write(s.array(), s.arrayOffset(), s.position());
+            } else {
+                if (chunk == null)
+                    chunk = new byte[Math.min(segmentSize, 8192)];
+                for (int p = 0; p < s.position(); ) {
+                    int n = Math.min(chunk.length, s.position() - p);
+                    s.get(p, chunk, 0, n);
+                    out.write(chunk, 0, n);
+                    p += n;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives all the segments back to the pool and starts over empty. Buffers from {@link #toBuffers()}
+     * must not be used after that.
+     */
+    public void release() {
+        for (int i = 0; i < count; i++) {
+            pool.release(segments[i]);
+            segments[i] = null;
+        }
+        count = 0;
+        current = null;
+        size = 0;
+    }
+
+    private void addSegment() {
+        if (count == segments.length) {
+            ByteBuffer[] grown = new ByteBuffer[count * 2];
+            System.arraycopy(segments, 0, grown, 0, count);
+            segments = grown;
+        }
+        current = pool.acquire(segmentSize);
+        segments[count++] = current;
+    }
+}
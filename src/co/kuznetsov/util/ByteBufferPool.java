@@ -0,0 +1,34 @@
+package co.kuznetsov.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of reusable byte buffers. Implementations must be thread safe, a buffer may be released
+ * by another thread than the one that acquired it.
+ */
+public interface ByteBufferPool {
+
+    /**
+     * Takes a cleared big-endian buffer with at least minCapacity bytes of capacity.
+     */
+    ByteBuffer acquire(int minCapacity);
+
+    /**
+     * Gives the buffer back to the pool, neither it nor its views may be used after that.
+     */
+    void release(ByteBuffer buffer);
+
+    /**
+     * Allocates a new buffer every time and leaves released ones to GC.
+     */
+    static ByteBufferPool unpooled(boolean direct) {
+        return new ByteBufferPool() {
+            public ByteBuffer acquire(int minCapacity) {
+                return direct ? ByteBuffer.allocateDirect(minCapacity) : ByteBuffer.allocate(minCapacity);
+            }
+
+            public void release(ByteBuffer buffer) {
+            }
+        };
+    }
+}
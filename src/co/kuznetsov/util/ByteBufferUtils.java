@@ -1,12 +1,20 @@
 package co.kuznetsov.util;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 
 public class ByteBufferUtils {
     private final static byte[] LONG_MIN_VALUE_BYTES = "-9223372036854775808".getBytes();
     private final static byte[] INT_MIN_VALUE_BYTES = "-2147483648".getBytes();
 
+    private final static long MILLIS_PER_DAY = 86_400_000L;
+    private final static long SECONDS_PER_DAY = 86_400L;
+    private final static byte[] ZEROES = "0000000000000000000000000000000000000000".getBytes();
+
+    // Last formatted "yyyy-MM-ddT", replaced as a whole when the day changes
+    private static volatile DayPrefix dayPrefix;
+
     private final static int[] sizeTable = {9, 99, 999, 9999, 99999, 999999, 9999999, 99999999, 999999999, Integer.MAX_VALUE};
 
     public static void writeIntAsString(ByteBuffer bb, int value) {
@@ -27,6 +35,396 @@ public class ByteBufferUtils {
         writeLongDigitsDirectly(bb, value, size);
     }
 
+    /**
+     * Writes the shortest decimal that reads back as the same double, exactly as Double.toString does:
+     * "1.0", "0.001", "1.0E-5", "NaN" and so on. Takes at most 24 bytes.
+     *
+     * @throws IndexOutOfBoundsException if the number doesn't fit before the limit, the buffer isn't changed then
+     */
+    public static void writeDoubleAsString(ByteBuffer bb, double value) {
+        DoubleToDecimal.write(bb, value, -1);
+    }
+
+    /**
+     * Writes the value in plain notation with exactly the given number of decimals, rounding its shortest
+     * decimal half up, same as BigDecimal.valueOf(value).setScale(decimals, RoundingMode.HALF_UP).toPlainString().
+     * NaN and infinities are written as by Double.toString.
+     */
+    public static void writeDoubleAsString(ByteBuffer bb, double value, int decimals) {
+        if (decimals < 0)
+            throw new IllegalArgumentException("Negative decimals: " + decimals);
+        DoubleToDecimal.write(bb, value, decimals);
+    }
+
+    /**
+     * Writes the shortest decimal that reads back as the same float, exactly as Float.toString does.
+     * Takes at most 15 bytes.
+     */
+    public static void writeFloatAsString(ByteBuffer bb, float value) {
+        DoubleToDecimal.write(bb, value, -1);
+    }
+
+    public static void writeFloatAsString(ByteBuffer bb, float value, int decimals) {
+        if (decimals < 0)
+            throw new IllegalArgumentException("Negative decimals: " + decimals);
+        DoubleToDecimal.write(bb, value, decimals);
+    }
+
+    /**
+     * Writes the value zero padded to the width, which includes the sign, as String.format("%0" + width + "d").
+     * Values that need more digits are written in full.
+     */
+    public static void writeIntPadded(ByteBuffer bb, int value, int width) {
+        if (value < 0) {
+            bb.put((byte) '-');
+            if (value == Integer.MIN_VALUE) {
+                pad(bb, width - INT_MIN_VALUE_BYTES.length);
+                bb.put(INT_MIN_VALUE_BYTES, 1, INT_MIN_VALUE_BYTES.length - 1);
+                return;
+            }
+            value = -value;
+            width--;
+        }
+        int size = stringSizeInt(value);
+        pad(bb, width - size);
+        writeIntDigitsDirectly(bb, value, size);
+    }
+
+    public static void writeLongPadded(ByteBuffer bb, long value, int width) {
+        if (value < 0) {
+            bb.put((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                pad(bb, width - LONG_MIN_VALUE_BYTES.length);
+                bb.put(LONG_MIN_VALUE_BYTES, 1, LONG_MIN_VALUE_BYTES.length - 1);
+                return;
+            }
+            value = -value;
+            width--;
+        }
+        int size = stringSizeLong(value);
+        pad(bb, width - size);
+        writeLongDigitsDirectly(bb, value, size);
+    }
+
+    /**
+     * Writes the value as unsigned lowercase hex without leading zeroes, as Long.toHexString.
+     */
+    public static void writeLongAsHex(ByteBuffer bb, long value) {
+        int size = Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(value) + 3) >> 2);
+        writeHexDigits(bb, value, size);
+    }
+
+    /**
+     * Writes exactly width lowercase hex digits of the value, the lowest ones if it doesn't fit.
+     */
+    public static void writeLongAsHex(ByteBuffer bb, long value, int width) {
+        if (width < 0)
+            throw new IllegalArgumentException("Negative width: " + width);
+        writeHexDigits(bb, value, width);
+    }
+
+    /**
+     * Writes two lowercase hex digits per byte, as HexFormat.of().formatHex.
+     */
+    public static void writeBytesAsHex(ByteBuffer bb, byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            int b = bytes[i];
+            bb.put(digits[b >> 4 & 0xF]);
+            bb.put(digits[b & 0xF]);
+        }
+    }
+
+    public static void writeBytesAsHex(ByteBuffer bb, byte[] bytes) {
+        writeBytesAsHex(bb, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes the epoch millis as ISO-8601 UTC with millisecond precision, "2024-03-01T12:34:56.789Z".
+     * The date part is formatted once per day and cached.
+     *
+     * @throws IllegalArgumentException if the year is outside 0000-9999
+     */
+    public static void writeTimestampMillis(ByteBuffer bb, long epochMillis) {
+        long day = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int) (epochMillis - day * MILLIS_PER_DAY);
+        bb.put(dayPrefix(day).bytes);
+        int seconds = millisOfDay / 1000;
+        writeTime(bb, seconds);
+        bb.put((byte) '.');
+        writePadded3(bb, millisOfDay - seconds * 1000);
+        bb.put((byte) 'Z');
+    }
+
+    /**
+     * Writes the epoch nanos as ISO-8601 UTC with nanosecond precision, "2024-03-01T12:34:56.789012345Z".
+     */
+    public static void writeTimestampNanos(ByteBuffer bb, long epochNanos) {
+        long seconds = Math.floorDiv(epochNanos, 1_000_000_000L);
+        int nanos = (int) (epochNanos - seconds * 1_000_000_000L);
+        long day = Math.floorDiv(seconds, SECONDS_PER_DAY);
+        bb.put(dayPrefix(day).bytes);
+        writeTime(bb, (int) (seconds - day * SECONDS_PER_DAY));
+        bb.put((byte) '.');
+        int millis = nanos / 1_000_000;
+        int micros = nanos / 1000 - millis * 1000;
+        writePadded3(bb, millis);
+        writePadded3(bb, micros);
+        writePadded3(bb, nanos - millis * 1_000_000 - micros * 1000);
+        bb.put((byte) 'Z');
+    }
+
+    /**
+     * Reads a signed decimal int at the buffer's position, advancing the position past its last digit.
+     * Reading stops at the first byte that isn't a digit, there has to be at least one digit.
+     *
+     * @throws NumberFormatException if there is no number at the position or it overflows int
+     */
+    public static int readIntAsString(ByteBuffer bb) {
+        return parseInt(bb, bb.position(), bb.limit(), true, true, 0);
+    }
+
+    /**
+     * Reads a signed decimal int taking up exactly length bytes at the offset, the position isn't changed.
+     *
+     * @throws NumberFormatException if the bytes aren't a number or it overflows int
+     */
+    public static int readIntAsString(ByteBuffer bb, int offset, int length) {
+        return parseInt(bb, offset, offset + length, false, true, 0);
+    }
+
+    /**
+     * Same as {@link #readIntAsString(ByteBuffer)}, but instead of throwing returns errorValue,
+     * leaving the position unchanged.
+     */
+    public static int tryReadIntAsString(ByteBuffer bb, int errorValue) {
+        return parseInt(bb, bb.position(), bb.limit(), true, false, errorValue);
+    }
+
+    public static int tryReadIntAsString(ByteBuffer bb, int offset, int length, int errorValue) {
+        return parseInt(bb, offset, offset + length, false, false, errorValue);
+    }
+
+    public static long readLongAsString(ByteBuffer bb) {
+        return parseLong(bb, bb.position(), bb.limit(), true, true, 0);
+    }
+
+    public static long readLongAsString(ByteBuffer bb, int offset, int length) {
+        return parseLong(bb, offset, offset + length, false, true, 0);
+    }
+
+    public static long tryReadLongAsString(ByteBuffer bb, long errorValue) {
+        return parseLong(bb, bb.position(), bb.limit(), true, false, errorValue);
+    }
+
+    public static long tryReadLongAsString(ByteBuffer bb, int offset, int length, long errorValue) {
+        return parseLong(bb, offset, offset + length, false, false, errorValue);
+    }
+
+    private static int parseInt(ByteBuffer bb, int from, int to, boolean relative, boolean throwing, int errorValue) {
+        int p = from;
+        boolean negative = false;
+        if (p < to) {
+            byte b = bb.get(p);
+            if (b == '-' || b == '+') {
+                negative = b == '-';
+                p++;
+            }
+        }
+        int digits = p;
+        while (p < to && bb.get(p) == '0')
+            p++;
+        int significant = p;
+
+        // Up to 10 significant digits are accumulated in a long, so they can't overflow it
+        long v = 0;
+        if (to - p >= 8) {
+            long w = littleEndianLong(bb, p);
+            if (isEightDigits(w)) {
+                v = eightDigits(w);
+                p += 8;
+            }
+        }
+        int max = Math.min(to, significant + 10);
+        while (p < max) {
+            int d = bb.get(p) - '0';
+            if (d < 0 || d > 9)
+                break;
+            v = v * 10 + d;
+            p++;
+        }
+
+        if (p == digits
+                || p < to && p == significant + 10 && isDigit(bb.get(p))
+                || v > (negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE)
+                || !relative && p != to) {
+            if (throwing)
+                nfe(bb, from, relative ? p + 1 : to);
+            return errorValue;
+        }
+        if (relative)
+            bb.position(p);
+        return (int) (negative ? -v : v);
+    }
+
+    private static long parseLong(ByteBuffer bb, int from, int to, boolean relative, boolean throwing, long errorValue) {
+        int p = from;
+        boolean negative = false;
+        if (p < to) {
+            byte b = bb.get(p);
+            if (b == '-' || b == '+') {
+                negative = b == '-';
+                p++;
+            }
+        }
+        int digits = p;
+        while (p < to && bb.get(p) == '0')
+            p++;
+        int significant = p;
+
+        // 8 digits at a time, up to 16 of them, then one by one up to 18 that can't overflow
+        long v = 0;
+        while (to - p >= 8 && p - significant <= 8) {
+            long w = littleEndianLong(bb, p);
+            if (!isEightDigits(w))
+                break;
+            v = v * 100000000 + eightDigits(w);
+            p += 8;
+        }
+        int safe = Math.min(to, significant + 18);
+        while (p < safe) {
+            int d = bb.get(p) - '0';
+            if (d < 0 || d > 9)
+                break;
+            v = v * 10 + d;
+            p++;
+        }
+
+        boolean overflow = false;
+        if (p == significant + 18 && p < to && isDigit(bb.get(p))) {
+            // The 19th digit may still fit, Long.MIN_VALUE wraps around to itself
+            int d = bb.get(p) - '0';
+            if (v > Long.MAX_VALUE / 10 || v == Long.MAX_VALUE / 10 && d > (negative ? 8 : 7)) {
+                overflow = true;
+            } else {
+                v = v * 10 + d;
+                p++;
+                overflow = p < to && isDigit(bb.get(p));
+            }
+        }
+
+        if (p == digits || overflow || !relative && p != to) {
+            if (throwing)
+                nfe(bb, from, relative ? p + 1 : to);
+            return errorValue;
+        }
+        if (relative)
+            bb.position(p);
+        return negative ? -v : v;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    // First byte in the lowest bits, whatever the buffer's order
+    private static long littleEndianLong(ByteBuffer bb, int index) {
+        long w = bb.getLong(index);
+        return bb.order() == ByteOrder.LITTLE_ENDIAN ? w : Long.reverseBytes(w);
+    }
+
+    private static boolean isEightDigits(long w) {
+        return ((w & 0xF0F0F0F0F0F0F0F0L) | (((w + 0x0606060606060606L) & 0xF0F0F0F0F0F0F0F0L) >>> 4)) == 0x3333333333333333L;
+    }
+
+    // Converts 8 ASCII digits, the first one in the lowest byte, combining pairs, quads and octets
+    private static long eightDigits(long w) {
+        w = (w & 0x0F0F0F0F0F0F0F0FL) * 2561 >>> 8;
+        w = (w & 0x00FF00FF00FF00FFL) * 6553601 >>> 16;
+        return (w & 0x0000FFFF0000FFFFL) * 42949672960001L >>> 32;
+    }
+
+    private static void nfe(ByteBuffer bb, int from, int to) {
+        StringBuilder sb = new StringBuilder("Illegal integer: ");
+        to = Math.min(Math.min(to, bb.limit()), from + 32);
+        for (int i = from; i < to; i++)
+            sb.append((char) (bb.get(i) & 0xFF));
+        throw new NumberFormatException(sb.toString());
+    }
+
+    private static DayPrefix dayPrefix(long day) {
+        DayPrefix p = dayPrefix;
+        if (p == null || p.day != day)
+            dayPrefix = p = new DayPrefix(day);
+        return p;
+    }
+
+    private static final class DayPrefix {
+        final long day;
+        final byte[] bytes = new byte[11];
+
+        // Civil date from days since the epoch, see Howard Hinnant's "chrono-Compatible Low-Level Date Algorithms"
+        DayPrefix(long day) {
+            long z = day + 719468;
+            long era = Math.floorDiv(z, 146097);
+            int doe = (int) (z - era * 146097);
+            int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+            int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+            int mp = (5 * doy + 2) / 153;
+            int d = doy - (153 * mp + 2) / 5 + 1;
+            int m = mp < 10 ? mp + 3 : mp - 9;
+            long y = yoe + era * 400 + (m <= 2 ? 1 : 0);
+            if (y < 0 || y > 9999)
+                throw new IllegalArgumentException("Year out of range: " + y);
+            this.day = day;
+            int hi = (int) y / 100;
+            int lo = (int) y - hi * 100;
+            bytes[0] = DigitTens[hi];
+            bytes[1] = DigitOnes[hi];
+            bytes[2] = DigitTens[lo];
+            bytes[3] = DigitOnes[lo];
+            bytes[4] = '-';
+            bytes[5] = DigitTens[m];
+            bytes[6] = DigitOnes[m];
+            bytes[7] = '-';
+            bytes[8] = DigitTens[d];
+            bytes[9] = DigitOnes[d];
+            bytes[10] = 'T';
+        }
+    }
+
+    // HH:mm:ss
+    private static void writeTime(ByteBuffer bb, int secondOfDay) {
+        int h = secondOfDay / 3600;
+        int m = secondOfDay / 60 - h * 60;
+        int s = secondOfDay - h * 3600 - m * 60;
+        bb.put(DigitTens[h]).put(DigitOnes[h]).put((byte) ':')
+                .put(DigitTens[m]).put(DigitOnes[m]).put((byte) ':')
+                .put(DigitTens[s]).put(DigitOnes[s]);
+    }
+
+    // Requires 0 <= v < 1000
+    private static void writePadded3(ByteBuffer bb, int v) {
+        int q = v / 100;
+        int r = v - q * 100;
+        bb.put(digits[q]).put(DigitTens[r]).put(DigitOnes[r]);
+    }
+
+    private static void pad(ByteBuffer bb, int n) {
+        for (; n > ZEROES.length; n -= ZEROES.length)
+            bb.put(ZEROES);
+        if (n > 0)
+            bb.put(ZEROES, 0, n);
+    }
+
+    private static void writeHexDigits(ByteBuffer bb, long value, int size) {
+        int p = bb.position() + size - 1;
+        bb.position(p + 1);
+        for (; size > 0; size--) {
+            bb.put(p--, digits[(int) value & 0xF]);
+            value >>>= 4;
+        }
+    }
+
     // Requires positive x
     private static int stringSizeInt(int x) {
         for (int i = 0; ; i++)
@@ -0,0 +1,42 @@
+package co.kuznetsov.util;
+
+/**
+ * Sizing of the primitive collections' arrays.
+ */
+final class Capacity {
+
+    // Some VMs reserve header words in arrays
+    private final static int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+    private Capacity() {
+    }
+
+    // Grows by half, at least to the required capacity
+    static int grow(int current, int required) {
+        if (required < 0 || required > MAX_ARRAY)
+            throw new IllegalStateException("Collection too large: " + Integer.toUnsignedString(required));
+        int grown = current + (current >> 1) + 1;
+        if (grown < 0 || grown > MAX_ARRAY)
+            grown = MAX_ARRAY;
+        return Math.max(grown, required);
+    }
+
+    // Power of two table keeping size entries at most 3/4 full
+    static int table(int size) {
+        long n = Math.max(4, (long) size * 4 / 3 + 1);
+        if (n > 1 << 30)
+            throw new IllegalStateException("Collection too large: " + size);
+        return Integer.highestOneBit((int) n - 1) << 1;
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        int x = (int) (h ^ h >>> 32);
+        return x ^ x >>> 16;
+    }
+}
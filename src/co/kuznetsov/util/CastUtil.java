@@ -1,5 +1,17 @@
 package co.kuznetsov.util;
 
+import static co.kuznetsov.util.StringBuilderUtils.parseDouble;
+import static co.kuznetsov.util.StringBuilderUtils.parseFloat;
+import static co.kuznetsov.util.StringBuilderUtils.parseInt;
+import static co.kuznetsov.util.StringBuilderUtils.parseLong;
+
+/**
+ * Unboxed values out of Objects of generic rows. Numbers are narrowed the way their xxxValue methods do,
+ * CharSequences are parsed in place with no surrounding whitespace allowed: integers in radix 10, taking any
+ * Unicode decimal digits like Integer.parseInt, doubles and floats in the decimal syntax of Double.parseDouble.
+ * <p>
+ * {@link ColumnConverter} does the same for whole batches of rows.
+ */
 public class CastUtil {
 
     public static int asInt(Object o) {
@@ -8,11 +20,123 @@ public class CastUtil {
         }
         if (o instanceof Number) {
             return ((Number)o).intValue();
+        } else if (o instanceof CharSequence) {
+            return parseInt((CharSequence)o, 0, 10);
         } else {
             throw new IllegalArgumentException("Non-null integer expected");
         }
     }
 
+    public static long asLong(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Non-null long expected");
+        }
+        if (o instanceof Number) {
+            return ((Number)o).longValue();
+        } else if (o instanceof CharSequence) {
+            return parseLong((CharSequence)o, 0, 10);
+        } else {
+            throw new IllegalArgumentException("Non-null long expected");
+        }
+    }
+
+    public static short asShort(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Non-null short expected");
+        }
+        if (o instanceof Number) {
+            return ((Number)o).shortValue();
+        } else if (o instanceof CharSequence) {
+            int v = parseInt((CharSequence)o, 0, 10);
+            if (v < Short.MIN_VALUE || v > Short.MAX_VALUE)
+                throw new NumberFormatException("Value out of range: " + o);
+            return (short) v;
+        } else {
+            throw new IllegalArgumentException("Non-null short expected");
+        }
+    }
+
+    public static byte asByte(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Non-null byte expected");
+        }
+        if (o instanceof Number) {
+            return ((Number)o).byteValue();
+        } else if (o instanceof CharSequence) {
+            int v = parseInt((CharSequence)o, 0, 10);
+            if (v < Byte.MIN_VALUE || v > Byte.MAX_VALUE)
+                throw new NumberFormatException("Value out of range: " + o);
+            return (byte) v;
+        } else {
+            throw new IllegalArgumentException("Non-null byte expected");
+        }
+    }
+
+    public static double asDouble(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Non-null double expected");
+        }
+        if (o instanceof Number) {
+            return ((Number)o).doubleValue();
+        } else if (o instanceof CharSequence) {
+            CharSequence cs = (CharSequence)o;
+            return parseDouble(cs, 0, cs.length());
+        } else {
+            throw new IllegalArgumentException("Non-null double expected");
+        }
+    }
+
+    public static float asFloat(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Non-null float expected");
+        }
+        if (o instanceof Number) {
+            return ((Number)o).floatValue();
+        } else if (o instanceof CharSequence) {
+            CharSequence cs = (CharSequence)o;
+            return parseFloat(cs, 0, cs.length());
+        } else {
+            throw new IllegalArgumentException("Non-null float expected");
+        }
+    }
+
+    /**
+     * Accepts Boolean and "true", "false", "1", "0".
+     */
+    public static boolean asBoolean(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Non-null boolean expected");
+        }
+        if (o instanceof Boolean) {
+            return (Boolean)o;
+        } else if (o instanceof CharSequence) {
+            CharSequence cs = (CharSequence)o;
+            if (is(cs, "true") || is(cs, "1"))
+                return true;
+            if (is(cs, "false") || is(cs, "0"))
+                return false;
+            throw new IllegalArgumentException("Illegal boolean: " + cs);
+        } else {
+            throw new IllegalArgumentException("Non-null boolean expected");
+        }
+    }
+
+    /**
+     * Accepts Character and CharSequences of one char.
+     */
+    public static char asChar(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Non-null char expected");
+        }
+        if (o instanceof Character) {
+            return (Character)o;
+        } else if (o instanceof CharSequence && ((CharSequence)o).length() == 1) {
+            return ((CharSequence)o).charAt(0);
+        } else {
+            throw new IllegalArgumentException("Non-null char expected");
+        }
+    }
+
     public static String asString(Object o) {
         if (o == null) {
             throw new IllegalArgumentException("Non-null string expected");
@@ -23,4 +147,16 @@ public class CastUtil {
             throw new IllegalArgumentException("Non-null string expected");
         }
     }
+
+    private static boolean is(CharSequence cs, String s) {
+        if (cs.length() != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (cs.charAt(i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
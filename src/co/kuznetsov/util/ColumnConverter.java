@@ -0,0 +1,229 @@
+package co.kuznetsov.util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Turns a batch of rows, Object[] or Map&lt;String, Object&gt;, into primitive column arrays, an int[], long[] or
+ * double[] per column, so that aggregations run over columns rather than boxed values.
+ * <p>
+ * How each column is read is planned once, from the first row converted: a column of the matching box type is
+ * unboxed directly, one of other Numbers through their xxxValue methods. Values which don't fit the plan, such
+ * as CharSequences, go through {@link CastUtil}; nulls and missing keys throw IllegalArgumentException.
+ * <p>
+ * Large batches are cut into ranges of rows converted in parallel on a {@link ForkJoinPool}, every range is
+ * written to its own part of the arrays.
+ * <p>
+ * The instances of ColumnConverter are thread safe.
+ */
+public class ColumnConverter {
+    private final static int INT = 0;
+    private final static int LONG = 1;
+    private final static int DOUBLE = 2;
+
+    // Plan of a column
+    private final static byte BOXED = 0;
+    private final static byte NUMBER = 1;
+    private final static byte ANY = 2;
+
+    private final static int MIN_CHUNK = 4096;
+
+    private final ForkJoinPool pool;
+    private final String[] keys;
+    private final int[] types;
+    private volatile byte[] plan;
+
+    /**
+     * Rows are Object[], column i is element i.
+     *
+     * @param types int.class, long.class or double.class of every column
+     */
+    public ColumnConverter(Class<?>... types) {
+        this(ForkJoinPool.commonPool(), null, types);
+    }
+
+    /**
+     * Rows are Maps, column i is the value of keys[i].
+     */
+    public ColumnConverter(String[] keys, Class<?>[] types) {
+        this(ForkJoinPool.commonPool(), keys, types);
+    }
+
+    /**
+     * @param keys of the columns in Map rows, null for Object[] rows
+     */
+    public ColumnConverter(ForkJoinPool pool, String[] keys, Class<?>[] types) {
+        if (keys != null && keys.length != types.length)
+            throw new IllegalArgumentException("Keys and types differ in length: " + keys.length + " != " + types.length);
+        this.pool = pool;
+        this.keys = keys == null ? null : keys.clone();
+        this.types = new int[types.length];
+        for (int c = 0; c < types.length; c++) {
+            if (types[c] == int.class)
+                this.types[c] = INT;
+            else if (types[c] == long.class)
+                this.types[c] = LONG;
+            else if (types[c] == double.class)
+                this.types[c] = DOUBLE;
+            else
+                throw new IllegalArgumentException("Column type is not int, long or double: " + types[c]);
+        }
+    }
+
+    public Columns convert(List<?> rows) {
+        Object[] r = rows.toArray();
+        int n = r.length;
+        Object[] arrays = new Object[types.length];
+        for (int c = 0; c < types.length; c++) {
+            switch (types[c]) {
+                case INT: arrays[c] = new int[n]; break;
+                case LONG: arrays[c] = new long[n]; break;
+                default: arrays[c] = new double[n]; break;
+            }
+        }
+        if (n == 0)
+            return new Columns(arrays, 0);
+
+        byte[] p = plan;
+        if (p == null)
+            plan = p = plan(r[0]);
+        int chunks = Math.max(1, Math.min(pool.getParallelism() * 4, n / MIN_CHUNK));
+        if (chunks == 1) {
+            convert(r, 0, n, p, arrays);
+            return new Columns(arrays, n);
+        }
+        final byte[] fp = p;
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[chunks];
+        for (int i = 0; i < chunks; i++) {
+            final int from = (int) ((long) n * i / chunks);
+            final int to = (int) ((long) n * (i + 1) / chunks);
+            tasks[i] = pool.submit(new Runnable() {
+                public void run() {
+                    convert(r, from, to, fp, arrays);
+                }
+            });
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        return new Columns(arrays, n);
+    }
+
+    private byte[] plan(Object row) {
+        byte[] p = new byte[types.length];
+        for (int c = 0; c < types.length; c++) {
+            Object v = value(row, c);
+            Class<?> boxed = types[c] == INT ? Integer.class : types[c] == LONG ? Long.class : Double.class;
+            p[c] = v != null && v.getClass() == boxed ? BOXED : v instanceof Number ? NUMBER : ANY;
+        }
+        return p;
+    }
+
+    private void convert(Object[] rows, int from, int to, byte[] plan, Object[] arrays) {
+        // Column by column, each loop has a single shape of values
+        for (int c = 0; c < types.length; c++) {
+            switch (types[c]) {
+                case INT: ints(rows, from, to, c, plan[c], (int[]) arrays[c]); break;
+                case LONG: longs(rows, from, to, c, plan[c], (long[]) arrays[c]); break;
+                default: doubles(rows, from, to, c, plan[c], (double[]) arrays[c]); break;
+            }
+        }
+    }
+
+    private void ints(Object[] rows, int from, int to, int c, byte plan, int[] a) {
+        if (plan == BOXED) {
+            for (int i = from; i < to; i++) {
+                Object v = value(rows[i], c);
+                a[i] = v instanceof Integer ? (Integer) v : CastUtil.asInt(v);
+            }
+        } else if (plan == NUMBER) {
+            for (int i = from; i < to; i++) {
+                Object v = value(rows[i], c);
+                a[i] = v instanceof Number ? ((Number) v).intValue() : CastUtil.asInt(v);
+            }
+        } else {
+            for (int i = from; i < to; i++)
+                a[i] = CastUtil.asInt(value(rows[i], c));
+        }
+    }
+
+    private void longs(Object[] rows, int from, int to, int c, byte plan, long[] a) {
+        if (plan == BOXED) {
+            for (int i = from; i < to; i++) {
+                Object v = value(rows[i], c);
+                a[i] = v instanceof Long ? (Long) v : CastUtil.asLong(v);
+            }
+        } else if (plan == NUMBER) {
+            for (int i = from; i < to; i++) {
+                Object v = value(rows[i], c);
+                a[i] = v instanceof Number ? ((Number) v).longValue() : CastUtil.asLong(v);
+            }
+        } else {
+            for (int i = from; i < to; i++)
+                a[i] = CastUtil.asLong(value(rows[i], c));
+        }
+    }
+
+    private void doubles(Object[] rows, int from, int to, int c, byte plan, double[] a) {
+        if (plan == BOXED) {
+            for (int i = from; i < to; i++) {
+                Object v = value(rows[i], c);
+                a[i] = v instanceof Double ? (Double) v : CastUtil.asDouble(v);
+            }
+        } else if (plan == NUMBER) {
+            for (int i = from; i < to; i++) {
+                Object v = value(rows[i], c);
+                a[i] = v instanceof Number ? ((Number) v).doubleValue() : CastUtil.asDouble(v);
+            }
+        } else {
+            for (int i = from; i < to; i++)
+                a[i] = CastUtil.asDouble(value(rows[i], c));
+        }
+    }
+
+    private Object value(Object row, int c) {
+        return keys == null ? ((Object[]) row)[c] : ((Map<?, ?>) row).get(keys[c]);
+    }
+
+    /**
+     * Column arrays of a converted batch, one element per row.
+     */
+    public static final class Columns {
+        private final Object[] arrays;
+        private final int rows;
+
+        private Columns(Object[] arrays, int rows) {
+            this.arrays = arrays;
+            this.rows = rows;
+        }
+
+        public int rows() {
+            return rows;
+        }
+
+        public int columns() {
+            return arrays.length;
+        }
+
+        public int[] ints(int column) {
+            return column(column, int[].class);
+        }
+
+        public long[] longs(int column) {
+            return column(column, long[].class);
+        }
+
+        public double[] doubles(int column) {
+            return column(column, double[].class);
+        }
+
+        private <T> T column(int column, Class<T> type) {
+            Object a = arrays[column];
+            if (!type.isInstance(a))
+                throw new IllegalArgumentException("Column " + column + " is " + a.getClass().getSimpleName() + ", not " + type.getSimpleName());
+            return type.cast(a);
+        }
+    }
+}
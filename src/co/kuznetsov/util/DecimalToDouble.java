@@ -0,0 +1,247 @@
+package co.kuznetsov.util;
+
+import java.math.BigInteger;
+
+/**
+ * Correctly rounded doubles and floats parsed from decimal text without creating a String.
+ * <p>
+ * Up to 19 significant digits are collected into a long w and the value is w 10^q. Small w and q are
+ * exact in floating point and take one multiplication or division (Clinger's fast path). The others go
+ * through Eisel-Lemire (see Daniel Lemire, "Number Parsing at a Gigabyte per Second"): w times a 128 bit
+ * truncation of 5^q is precise enough to round correctly, as proven by Mushtak and Lemire. Only when more
+ * than 19 digits are given and w and w + 1 round apart the text is handed to Double.parseDouble.
+ * <p>
+ * The syntax is the decimal one of Double.parseDouble: optional sign, digits with an optional point,
+ * optional exponent, optional type suffix, NaN and Infinity. Hexadecimal and surrounding whitespace aren't
+ * accepted.
+ */
+final class DecimalToDouble {
+
+    // Range of the table of powers of five
+    private final static int Q_MIN = -342;
+    private final static int Q_MAX = 308;
+
+    private final static int MAX_DIGITS = 19;
+
+    private final static double[] DOUBLE_POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private final static float[] FLOAT_POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private final static long DOUBLE_NAN = Double.doubleToRawLongBits(Double.NaN);
+    private final static long FLOAT_NAN = Float.floatToRawIntBits(Float.NaN);
+
+    /**
+     * 5^q normalized to [2^127, 2^128) as a high and a low long. Truncated for q >= 0, rounded up for q < 0
+     * the same way as the table of fast_float.
+     */
+    private static final class Pow5 {
+        private final static long[] TABLE = new long[2 * (Q_MAX - Q_MIN + 1)];
+
+        static {
+            BigInteger two128 = BigInteger.ONE.shiftLeft(128);
+            for (int q = Q_MIN; q <= Q_MAX; q++) {
+                BigInteger p = BigInteger.valueOf(5).pow(Math.abs(q));
+                int z = p.bitLength();
+                BigInteger c;
+                if (q >= 0) {
+                    c = z < 128 ? p.shiftLeft(128 - z) : p.shiftRight(z - 128);
+                } else {
+                    // z bits hold 5^-q unless it's a power of two, which it never is
+                    int b = q >= -27 ? z + 127 : 2 * z + 128;
+                    c = BigInteger.ONE.shiftLeft(b).divide(p).add(BigInteger.ONE);
+                    while (c.compareTo(two128) >= 0)
+                        c = c.shiftRight(1);
+                }
+                TABLE[2 * (q - Q_MIN)] = c.shiftRight(64).longValue();
+                TABLE[2 * (q - Q_MIN) + 1] = c.longValue();
+            }
+        }
+    }
+
+    private DecimalToDouble() {
+    }
+
+    /**
+     * @return the raw bits of the double, or of the float in the low half
+     */
+    static long parse(CharSequence cs, int offset, int length, boolean single) {
+        if (offset < 0 || length < 0 || offset + length > cs.length())
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + length) + ") out of bounds for length " + cs.length());
+        int end = offset + length;
+        int i = offset;
+        boolean negative = false;
+        if (i < end && (cs.charAt(i) == '-' || cs.charAt(i) == '+')) {
+            negative = cs.charAt(i) == '-';
+            i++;
+        }
+        if (i < end && (cs.charAt(i) == 'N' || cs.charAt(i) == 'I')) {
+            if (matches(cs, i, end, "NaN"))
+                return single ? FLOAT_NAN : DOUBLE_NAN;
+            if (matches(cs, i, end, "Infinity"))
+                return sign(single ? 0xFFL << 23 : 0x7FFL << 52, negative, single);
+            throw nfe(cs, offset, end);
+        }
+
+        // w holds the first 19 significant digits, the value is w 10^q
+        long w = 0;
+        int digits = 0;
+        int q = 0;
+        boolean any = false;
+        boolean truncated = false;
+        for (int d; i < end && (d = cs.charAt(i) - '0') >= 0 && d <= 9; i++) {
+            any = true;
+            if (digits < MAX_DIGITS) {
+                w = w * 10 + d;
+                if (w != 0)
+                    digits++;
+            } else {
+                q++;
+                truncated |= d != 0;
+            }
+        }
+        if (i < end && cs.charAt(i) == '.') {
+            for (int d; ++i < end && (d = cs.charAt(i) - '0') >= 0 && d <= 9; ) {
+                any = true;
+                if (digits < MAX_DIGITS) {
+                    w = w * 10 + d;
+                    if (w != 0)
+                        digits++;
+                    q--;
+                } else {
+                    truncated |= d != 0;
+                }
+            }
+        }
+        if (!any)
+            throw nfe(cs, offset, end);
+        if (i < end && (cs.charAt(i) | 0x20) == 'e') {
+            boolean negativeExp = false;
+            if (++i < end && (cs.charAt(i) == '-' || cs.charAt(i) == '+'))
+                negativeExp = cs.charAt(i++) == '-';
+            int e = 0;
+            int start = i;
+            for (int d; i < end && (d = cs.charAt(i) - '0') >= 0 && d <= 9; i++) {
+                // Anything past this is zero or infinity anyway
+                if (e < 100_000)
+                    e = e * 10 + d;
+            }
+            if (i == start)
+                throw nfe(cs, offset, end);
+            q += negativeExp ? -e : e;
+        }
+        if (i < end && "fFdD".indexOf(cs.charAt(i)) >= 0)
+            i++;
+        if (i != end)
+            throw nfe(cs, offset, end);
+
+        if (w == 0)
+            return sign(0, negative, single);
+        long bits;
+        if (!truncated) {
+            bits = single ? toFloat(w, q) : toDouble(w, q);
+        } else {
+            // The digits left out put the value between w 10^q and (w + 1) 10^q
+            bits = single ? eiselLemire(w, q, true) : eiselLemire(w, q, false);
+            if (bits != (single ? eiselLemire(w + 1, q, true) : eiselLemire(w + 1, q, false))) {
+                String s = cs.subSequence(offset, end).toString();
+                return single ? Float.floatToRawIntBits(Float.parseFloat(s)) & 0xFFFF_FFFFL
+                        : Double.doubleToRawLongBits(Double.parseDouble(s));
+            }
+        }
+        return sign(bits, negative, single);
+    }
+
+    private static long toDouble(long w, int q) {
+        if (w >>> 53 == 0 && q >= -22 && q <= 22) {
+            double v = q < 0 ? w / DOUBLE_POW10[-q] : w * DOUBLE_POW10[q];
+            return Double.doubleToRawLongBits(v);
+        }
+        return eiselLemire(w, q, false);
+    }
+
+    private static long toFloat(long w, int q) {
+        if (w >>> 24 == 0 && q >= -10 && q <= 10) {
+            float v = q < 0 ? w / FLOAT_POW10[-q] : w * FLOAT_POW10[q];
+            return Float.floatToRawIntBits(v);
+        }
+        return eiselLemire(w, q, true);
+    }
+
+    /**
+     * Bits of the positive double or float nearest to w 10^q, w is unsigned and not 0.
+     */
+    private static long eiselLemire(long w, int q, boolean single) {
+        int mantissaBits = single ? 23 : 52;
+        int minExponent = single ? -127 : -1023;
+        int infinitePower = single ? 0xFF : 0x7FF;
+        if (q < (single ? -65 : Q_MIN))
+            return 0;
+        if (q > (single ? 38 : Q_MAX))
+            return (long) infinitePower << mantissaBits;
+
+        int lz = Long.numberOfLeadingZeros(w);
+        w <<= lz;
+        int index = 2 * (q - Q_MIN);
+        long high = Math.unsignedMultiplyHigh(w, Pow5.TABLE[index]);
+        long low = w * Pow5.TABLE[index];
+        long precisionMask = -1L >>> (mantissaBits + 3);
+        if ((high & precisionMask) == precisionMask) {
+            // The truncated low half of 5^q may carry into the bits kept
+            long secondHigh = Math.unsignedMultiplyHigh(w, Pow5.TABLE[index + 1]);
+            low += secondHigh;
+            if (Long.compareUnsigned(secondHigh, low) > 0)
+                high++;
+        }
+
+        int upperBit = (int) (high >>> 63);
+        int shift = upperBit + 64 - mantissaBits - 3;
+        long mantissa = high >>> shift;
+        // floor(log2(10^q)) + 63
+        int power2 = ((217_706 * q) >> 16) + 63 + upperBit - lz - minExponent;
+        if (power2 <= 0) {
+            // Subnormal
+            if (-power2 + 1 >= 64)
+                return 0;
+            mantissa >>>= -power2 + 1;
+            mantissa += mantissa & 1;
+            mantissa >>>= 1;
+            power2 = mantissa < 1L << mantissaBits ? 0 : 1;
+            return (long) power2 << mantissaBits | mantissa & ((1L << mantissaBits) - 1);
+        }
+        // Exactly halfway between two values is only possible for small q, round it to even
+        if (Long.compareUnsigned(low, 1) <= 0 && q >= (single ? -17 : -4) && q <= (single ? 10 : 23)
+                && (mantissa & 3) == 1 && mantissa << shift == high)
+            mantissa &= ~1L;
+        mantissa += mantissa & 1;
+        mantissa >>>= 1;
+        if (mantissa >= 2L << mantissaBits) {
+            mantissa = 1L << mantissaBits;
+            power2++;
+        }
+        if (power2 >= infinitePower)
+            return (long) infinitePower << mantissaBits;
+        return (long) power2 << mantissaBits | mantissa & ((1L << mantissaBits) - 1);
+    }
+
+    private static long sign(long bits, boolean negative, boolean single) {
+        if (!negative)
+            return bits;
+        return single ? bits | 0x8000_0000L : bits | Long.MIN_VALUE;
+    }
+
+    private static boolean matches(CharSequence cs, int from, int end, String s) {
+        if (end - from != s.length())
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (cs.charAt(from + i) != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static NumberFormatException nfe(CharSequence cs, int from, int to) {
+        return new NumberFormatException("Illegal number: " + cs.subSequence(from, to));
+    }
+}
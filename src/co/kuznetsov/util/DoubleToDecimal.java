@@ -0,0 +1,470 @@
+package co.kuznetsov.util;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import static co.kuznetsov.util.ByteBufferUtils.DigitOnes;
+import static co.kuznetsov.util.ByteBufferUtils.DigitTens;
+
+/**
+ * Shortest decimal representation of doubles and floats written straight into a ByteBuffer,
+ * the output is the same as Double.toString and Float.toString.
+ * <p>
+ * It's Raffaello Giulietti's Schubfach algorithm, the one behind Double.toString since JDK 19
+ * (see "The Schubfach way to render doubles"): the decimal is found in the rounding interval
+ * of the binary value with a couple of 128 bit multiplications by a precomputed power of ten.
+ */
+final class DoubleToDecimal {
+
+    // Double: precision, exponent range and decimal digits
+    private final static int P = 53;
+    private final static int Q_MIN = -1074;
+    private final static int K_MIN = -324;
+    private final static int K_MAX = 292;
+    private final static int H = 17;
+    private final static long C_MIN = 1L << (P - 1);
+    private final static int BQ_MASK = (1 << 11) - 1;
+    private final static long T_MASK = (1L << (P - 1)) - 1;
+    private final static long C_TINY = 3;
+
+    // Float
+    private final static int F_P = 24;
+    private final static int F_Q_MIN = -149;
+    private final static int F_C_MIN = 1 << (F_P - 1);
+    private final static int F_BQ_MASK = (1 << 8) - 1;
+    private final static int F_T_MASK = (1 << (F_P - 1)) - 1;
+    private final static int F_C_TINY = 8;
+
+    private final static long MASK_63 = (1L << 63) - 1;
+    private final static long MASK_32 = (1L << 32) - 1;
+
+    private final static byte[] NAN = "NaN".getBytes();
+    private final static byte[] INFINITY = "Infinity".getBytes();
+    private final static byte[] ZERO = "0.0".getBytes();
+
+    private final static long[] POW10 = new long[H + 1];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i <= H; i++)
+            POW10[i] = POW10[i - 1] * 10;
+    }
+
+    /**
+     * g1 and g0 of every power of ten in [K_MIN, K_MAX]: 10^-k = β 2^r with 2^125 <= β < 2^126,
+     * g = floor(β) + 1 = g1 2^63 + g0.
+     */
+    private static final class G {
+        private final static long[] TABLE = new long[2 * (K_MAX - K_MIN + 1)];
+
+        static {
+            for (int k = K_MIN; k <= K_MAX; k++) {
+                int shift = 125 - flog2pow10(-k);
+                BigInteger g;
+                if (k <= 0) {
+                    BigInteger p = BigInteger.TEN.pow(-k);
+                    g = shift >= 0 ? p.shiftLeft(shift) : p.shiftRight(-shift);
+                } else {
+                    g = BigInteger.ONE.shiftLeft(shift).divide(BigInteger.TEN.pow(k));
+                }
+                g = g.add(BigInteger.ONE);
+                TABLE[2 * (k - K_MIN)] = g.shiftRight(63).longValueExact();
+                TABLE[2 * (k - K_MIN) + 1] = g.longValue() & MASK_63;
+            }
+        }
+    }
+
+    private DoubleToDecimal() {
+    }
+
+    /**
+     * Writes the shortest representation, or when decimals >= 0 the shortest representation
+     * rounded half up to that many decimals in plain notation. The length is known before the
+     * first byte is put, a number which doesn't fit leaves the buffer untouched.
+     */
+    static void write(ByteBuffer bb, double v, int decimals) {
+        long bits = Double.doubleToRawLongBits(v);
+        long t = bits & T_MASK;
+        int bq = (int) (bits >>> (P - 1)) & BQ_MASK;
+        int i = bb.position();
+        if (bq == BQ_MASK) {
+            i = special(bb, i, t != 0, bits < 0);
+        } else if (bq == 0 && t == 0) {
+            i = zero(bb, i, bits < 0, decimals);
+        } else if (bq != 0) {
+            // Normal value, integers below 2^53 are rendered without searching
+            int mq = -Q_MIN + 1 - bq;
+            long c = C_MIN | t;
+            long f = c >> mq;
+            if (0 < mq && mq < P && f << mq == c)
+                i = digits(bb, i, bits < 0, f, 0, decimals);
+            else
+                i = toDecimal(bb, i, bits < 0, -mq, c, 0, decimals);
+        } else {
+            // Subnormal value
+            i = t < C_TINY
+                    ? toDecimal(bb, i, bits < 0, Q_MIN, 10 * t, -1, decimals)
+                    : toDecimal(bb, i, bits < 0, Q_MIN, t, 0, decimals);
+        }
+        bb.position(i);
+    }
+
+    static void write(ByteBuffer bb, float v, int decimals) {
+        int bits = Float.floatToRawIntBits(v);
+        int t = bits & F_T_MASK;
+        int bq = (bits >>> (F_P - 1)) & F_BQ_MASK;
+        int i = bb.position();
+        if (bq == F_BQ_MASK) {
+            i = special(bb, i, t != 0, bits < 0);
+        } else if (bq == 0 && t == 0) {
+            i = zero(bb, i, bits < 0, decimals);
+        } else if (bq != 0) {
+            int mq = -F_Q_MIN + 1 - bq;
+            int c = F_C_MIN | t;
+            int f = c >> mq;
+            if (0 < mq && mq < F_P && f << mq == c)
+                i = digits(bb, i, bits < 0, f, 0, decimals);
+            else
+                i = toDecimal(bb, i, bits < 0, -mq, c, 0, decimals);
+        } else {
+            i = t < F_C_TINY
+                    ? toDecimal(bb, i, bits < 0, F_Q_MIN, 10 * t, -1, decimals)
+                    : toDecimal(bb, i, bits < 0, F_Q_MIN, t, 0, decimals);
+        }
+        bb.position(i);
+    }
+
+    // Finds the shortest decimal f 10^e in the rounding interval of c 2^q
+    private static int toDecimal(ByteBuffer bb, int i, boolean negative, int q, long c, int dk, int decimals) {
+        int out = (int) c & 0x1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        // Regular spacing, or the interval below a power of two is half as wide
+        if (c != C_MIN || q == Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+
+        long g1 = G.TABLE[2 * (k - K_MIN)];
+        long g0 = G.TABLE[2 * (k - K_MIN) + 1];
+
+        long vb = rop(g1, g0, cb << h);
+        long vbl = rop(g1, g0, cbl << h);
+        long vbr = rop(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {
+            // One digit shorter, if the interval allows
+            long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin)
+                return digits(bb, i, negative, upin ? sp10 : tp10, k, decimals);
+        }
+
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win)
+            return digits(bb, i, negative, uin ? s : t, k + dk, decimals);
+        long cmp = vb - (s + t << 1);
+        return digits(bb, i, negative, cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk, decimals);
+    }
+
+    private static int toDecimal(ByteBuffer bb, int i, boolean negative, int q, int c, int dk, int decimals) {
+        int out = c & 0x1;
+        long cb = (long) c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != F_C_MIN || q == F_Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 33;
+
+        long g = G.TABLE[2 * (k - K_MIN)] + 1;
+
+        int vb = rop(g, cb << h);
+        int vbl = rop(g, cbl << h);
+        int vbr = rop(g, cbr << h);
+
+        int s = vb >> 2;
+        if (s >= 100) {
+            int sp10 = 10 * (int) (s * 1_717_986_919L >>> 34);
+            int tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin)
+                return digits(bb, i, negative, upin ? sp10 : tp10, k, decimals);
+        }
+
+        int t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win)
+            return digits(bb, i, negative, uin ? s : t, k + dk, decimals);
+        int cmp = vb - (s + t << 1);
+        return digits(bb, i, negative, cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk, decimals);
+    }
+
+    // Rounds g cp / 2^127 to odd
+    private static long rop(long g1, long g0, long cp) {
+        long x1 = Math.multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = Math.multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    private static int rop(long g, long cp) {
+        long x1 = Math.multiplyHigh(g, cp);
+        long vbp = x1 >>> 31;
+        return (int) (vbp | (x1 & MASK_32) + MASK_32 >>> 32);
+    }
+
+    // Writes f 10^e, f > 0
+    private static int digits(ByteBuffer bb, int i, boolean negative, long f, int e, int decimals) {
+        if (decimals >= 0)
+            return fixed(bb, i, negative, f, e, decimals);
+
+        // Only the significant digits of f, as 0.f 10^e
+        while (f % 10 == 0) {
+            f /= 10;
+            e++;
+        }
+        int len = length(f);
+        e += len;
+        int sign = negative ? 1 : 0;
+
+        if (0 < e && e <= 7) {
+            // Plain, at least one decimal
+            room(bb, i, sign + e + 1 + Math.max(len - e, 1));
+            if (negative)
+                bb.put(i++, (byte) '-');
+            if (len <= e) {
+                i = putDigits(bb, i, f, len);
+                for (int j = len; j < e; j++)
+                    bb.put(i++, (byte) '0');
+                bb.put(i++, (byte) '.');
+                bb.put(i++, (byte) '0');
+                return i;
+            }
+            long p = POW10[len - e];
+            i = putDigits(bb, i, f / p, e);
+            bb.put(i++, (byte) '.');
+            return putDigits(bb, i, f % p, len - e);
+        }
+        if (-3 < e && e <= 0) {
+            // Plain with leading zeroes
+            room(bb, i, sign + 2 - e + len);
+            if (negative)
+                bb.put(i++, (byte) '-');
+            bb.put(i++, (byte) '0');
+            bb.put(i++, (byte) '.');
+            for (; e < 0; e++)
+                bb.put(i++, (byte) '0');
+            return putDigits(bb, i, f, len);
+        }
+        // Computerized scientific notation
+        int x = e - 1;
+        int ax = Math.abs(x);
+        room(bb, i, sign + 2 + Math.max(len - 1, 1) + (x < 0 ? 2 : 1) + (ax >= 100 ? 3 : ax >= 10 ? 2 : 1));
+        if (negative)
+            bb.put(i++, (byte) '-');
+        long p = POW10[len - 1];
+        bb.put(i++, (byte) ('0' + f / p));
+        bb.put(i++, (byte) '.');
+        if (len == 1)
+            bb.put(i++, (byte) '0');
+        else
+            i = putDigits(bb, i, f % p, len - 1);
+        return exponent(bb, i, x);
+    }
+
+    // f 10^e rounded half up to the decimals, in plain notation
+    private static int fixed(ByteBuffer bb, int i, boolean negative, long f, int e, int decimals) {
+        long scale = (long) e + decimals;
+        if (scale >= 0) {
+            // Nothing to round: f, zeroes, the point and more zeroes
+            int len = length(f);
+            int point = len + e;
+            room(bb, i, fixedLength(negative, Math.max(point, 1), decimals));
+            if (negative)
+                bb.put(i++, (byte) '-');
+            if (point <= 0) {
+                bb.put(i++, (byte) '0');
+                if (decimals > 0)
+                    bb.put(i++, (byte) '.');
+                for (int j = point; j < 0; j++)
+                    bb.put(i++, (byte) '0');
+                i = putDigits(bb, i, f, len);
+                // The decimals beyond f
+                for (int j = 0; j < scale; j++)
+                    bb.put(i++, (byte) '0');
+            } else {
+                int end = i + point + (decimals > 0 ? decimals + 1 : 0);
+                for (int j = i + len; j < end; j++)
+                    bb.put(j, (byte) '0');
+                if (point < len) {
+                    // The point falls inside f
+                    long p = POW10[len - point];
+                    putDigits(bb, i, f / p, point);
+                    bb.put(i + point, (byte) '.');
+                    putDigits(bb, i + point + 1, f % p, len - point);
+                } else {
+                    putDigits(bb, i, f, len);
+                    if (decimals > 0)
+                        bb.put(i + point, (byte) '.');
+                }
+                i = end;
+            }
+            return i;
+        }
+
+        // Drop the last -scale digits of f, rounding half up
+        long drop = -scale;
+        int len = length(f);
+        long n;
+        if (drop > len) {
+            n = 0;
+        } else if (drop == len) {
+            n = f >= 5 * POW10[len - 1] ? 1 : 0;
+        } else {
+            long p = POW10[(int) drop];
+            n = f / p;
+            if (f - n * p >= p / 2)
+                n++;
+        }
+        if (n == 0)
+            negative = false;
+        int nlen = length(n);
+        room(bb, i, fixedLength(negative, Math.max(nlen - decimals, 1), decimals));
+        if (negative)
+            bb.put(i++, (byte) '-');
+        if (nlen <= decimals) {
+            bb.put(i++, (byte) '0');
+            bb.put(i++, (byte) '.');
+            for (int j = nlen; j < decimals; j++)
+                bb.put(i++, (byte) '0');
+            return putDigits(bb, i, n, nlen);
+        }
+        if (decimals == 0)
+            return putDigits(bb, i, n, nlen);
+        long p = POW10[decimals];
+        i = putDigits(bb, i, n / p, nlen - decimals);
+        bb.put(i++, (byte) '.');
+        return putDigits(bb, i, n % p, decimals);
+    }
+
+    private static int special(ByteBuffer bb, int i, boolean nan, boolean negative) {
+        if (nan) {
+            room(bb, i, NAN.length);
+            putBytes(bb, i, NAN);
+            return i + NAN.length;
+        }
+        room(bb, i, (negative ? 1 : 0) + INFINITY.length);
+        if (negative)
+            bb.put(i++, (byte) '-');
+        putBytes(bb, i, INFINITY);
+        return i + INFINITY.length;
+    }
+
+    private static int zero(ByteBuffer bb, int i, boolean negative, int decimals) {
+        if (decimals < 0) {
+            room(bb, i, (negative ? 1 : 0) + ZERO.length);
+            if (negative)
+                bb.put(i++, (byte) '-');
+            putBytes(bb, i, ZERO);
+            return i + ZERO.length;
+        }
+        // Like BigDecimal, there is no negative zero
+        room(bb, i, fixedLength(false, 1, decimals));
+        bb.put(i++, (byte) '0');
+        if (decimals > 0)
+            bb.put(i++, (byte) '.');
+        for (int j = 0; j < decimals; j++)
+            bb.put(i++, (byte) '0');
+        return i;
+    }
+
+    private static int exponent(ByteBuffer bb, int i, int e) {
+        bb.put(i++, (byte) 'E');
+        if (e < 0) {
+            bb.put(i++, (byte) '-');
+            e = -e;
+        }
+        if (e >= 100) {
+            int d = e * 1_311 >>> 17;
+            bb.put(i++, (byte) ('0' + d));
+            e -= 100 * d;
+            bb.put(i++, DigitTens[e]);
+        } else if (e >= 10) {
+            bb.put(i++, DigitTens[e]);
+        }
+        bb.put(i++, DigitOnes[e]);
+        return i;
+    }
+
+    // Sign, integer digits, the point and the decimals; in a long as decimals may be near Integer.MAX_VALUE
+    private static long fixedLength(boolean negative, int integers, int decimals) {
+        return (negative ? 1 : 0) + integers + (decimals > 0 ? 1L + decimals : 0);
+    }
+
+    // Throws before anything is put when n bytes from i don't fit before the limit
+    private static void room(ByteBuffer bb, int i, long n) {
+        if (n > bb.limit() - i)
+            throw new IndexOutOfBoundsException("Needs " + n + " bytes, " + (bb.limit() - i) + " remaining");
+    }
+
+    // Exactly len digits of v, zero padded
+    private static int putDigits(ByteBuffer bb, int i, long v, int len) {
+        int j = i + len;
+        while (j - i >= 2) {
+            int r = (int) (v % 100);
+            v /= 100;
+            bb.put(--j, DigitOnes[r]);
+            bb.put(--j, DigitTens[r]);
+        }
+        if (j > i)
+            bb.put(--j, (byte) ('0' + v % 10));
+        return i + len;
+    }
+
+    private static void putBytes(ByteBuffer bb, int i, byte[] b) {
+        for (int j = 0; j < b.length; j++)
+            bb.put(i + j, b[j]);
+    }
+
+    // Number of decimal digits, 1 for 0
+    private static int length(long f) {
+        int len = flog10pow2(Long.SIZE - Long.numberOfLeadingZeros(f));
+        return f >= POW10[len] ? len + 1 : Math.max(len, 1);
+    }
+
+    // floor(log10(2^e))
+    private static int flog10pow2(int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    // floor(log10(3/4 2^e))
+    private static int flog10threeQuartersPow2(int e) {
+        return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+    }
+
+    // floor(log2(10^e))
+    private static int flog2pow10(int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+}
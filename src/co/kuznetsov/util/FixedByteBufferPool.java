@@ -0,0 +1,93 @@
+package co.kuznetsov.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free pool of equally sized buffers, either heap or direct ones.
+ * <p>
+ * Idle buffers sit in an array of slots, every thread starts looking at its own slot. When all the slots
+ * are empty a new buffer is allocated, a buffer released while all the slots are taken is left to GC.
+ * Requests for more than the buffer size are served by one-off allocations that aren't pooled either.
+ */
+public class FixedByteBufferPool implements ByteBufferPool {
+    private final AtomicReferenceArray<ByteBuffer> slots;
+    private final int mask;
+    private final int bufferSize;
+    private final boolean direct;
+
+    /**
+     * @param size       maximum number of idle buffers, rounded up to a power of two
+     * @param bufferSize capacity of the pooled buffers
+     */
+    public FixedByteBufferPool(int size, int bufferSize, boolean direct) {
+        if (size <= 0)
+            throw new IllegalArgumentException("Pool size must be positive: " + size);
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        int n = Integer.highestOneBit(size);
+        if (n < size)
+            n <<= 1;
+        this.slots = new AtomicReferenceArray<>(n);
+        this.mask = n - 1;
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public ByteBuffer acquire(int minCapacity) {
+        if (minCapacity > bufferSize)
+            return allocate(minCapacity);
+        int start = probe();
+        for (int i = 0; i <= mask; i++) {
+            int slot = (start + i) & mask;
+            if (slots.get(slot) != null) {
+                ByteBuffer b = slots.getAndSet(slot, null);
+                if (b != null)
+                    return b.clear().order(ByteOrder.BIG_ENDIAN);
+            }
+        }
+        return allocate(bufferSize);
+    }
+
+    public void release(ByteBuffer buffer) {
+        // Only the kind of buffers this pool allocates
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct || buffer.isReadOnly())
+            return;
+        int start = probe();
+        for (int i = 0; i <= mask; i++) {
+            int slot = (start + i) & mask;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, buffer))
+                return;
+        }
+    }
+
+    /**
+     * Number of idle buffers, for monitoring.
+     */
+    public int idle() {
+        int n = 0;
+        for (int i = 0; i <= mask; i++) {
+            if (slots.get(i) != null)
+                n++;
+        }
+        return n;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private int probe() {
+        int h = (int) Thread.currentThread().threadId() * 0x9E3779B9;
+        return (h ^ h >>> 16) & mask;
+    }
+}
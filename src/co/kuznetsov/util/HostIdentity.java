@@ -0,0 +1,101 @@
+package co.kuznetsov.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Host name, addresses and pid of this process, an immutable snapshot published by {@link HostIdentityService}.
+ * The texts are encoded once, the write methods only copy bytes into the buffer.
+ */
+public final class HostIdentity {
+    private final String hostName;
+    private final List<String> addresses;
+    private final long pid;
+    private final boolean resolved;
+
+    private final byte[] hostNameBytes;
+    private final byte[] addressBytes;
+    private final byte[] pidBytes;
+
+    /**
+     * @param addresses the primary one first, at least one
+     * @param resolved  false for a fallback made up without asking the resolver
+     */
+    HostIdentity(String hostName, List<String> addresses, long pid, boolean resolved) {
+        if (addresses.isEmpty())
+            throw new IllegalArgumentException("No addresses");
+        this.hostName = hostName;
+        this.addresses = List.copyOf(addresses);
+        this.pid = pid;
+        this.resolved = resolved;
+        this.hostNameBytes = hostName.getBytes(StandardCharsets.UTF_8);
+        this.addressBytes = this.addresses.get(0).getBytes(StandardCharsets.US_ASCII);
+        this.pidBytes = Long.toString(pid).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    /**
+     * The primary address as text.
+     */
+    public String getAddress() {
+        return addresses.get(0);
+    }
+
+    public List<String> getAddresses() {
+        return addresses;
+    }
+
+    public long getPid() {
+        return pid;
+    }
+
+    public boolean isResolved() {
+        return resolved;
+    }
+
+    /**
+     * Puts the host name as UTF-8 at the buffer's position.
+     */
+    public void writeHostName(ByteBuffer bb) {
+        bb.put(hostNameBytes);
+    }
+
+    /**
+     * Puts the primary address at the buffer's position.
+     */
+    public void writeAddress(ByteBuffer bb) {
+        bb.put(addressBytes);
+    }
+
+    /**
+     * Puts the pid as decimal digits at the buffer's position.
+     */
+    public void writePid(ByteBuffer bb) {
+        bb.put(pidBytes);
+    }
+
+    public int getHostNameLength() {
+        return hostNameBytes.length;
+    }
+
+    public int getAddressLength() {
+        return addressBytes.length;
+    }
+
+    public int getPidLength() {
+        return pidBytes.length;
+    }
+
+    boolean sameAs(HostIdentity o) {
+        return hostName.equals(o.hostName) && addresses.equals(o.addresses) && pid == o.pid && resolved == o.resolved;
+    }
+
+    @Override
+    public String toString() {
+        return hostName + " " + addresses + " pid " + pid + (resolved ? "" : " (fallback)");
+    }
+}
@@ -0,0 +1,122 @@
+package co.kuznetsov.util;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link HostIdentity} of this process without ever blocking its readers.
+ * <p>
+ * InetAddress.getLocalHost() can take seconds on a misconfigured resolver, so it's only called on a background
+ * thread: right after creation and then every TTL. Until the first resolution completes, and whenever one fails,
+ * readers get a fallback made of the HOSTNAME or COMPUTERNAME environment variable and the addresses of the
+ * network interfaces, none of which asks the resolver. {@link #get()} is a single volatile read.
+ * <p>
+ * The instances of HostIdentityService are thread safe.
+ */
+public final class HostIdentityService implements AutoCloseable {
+
+    public final static long DEFAULT_TTL_MINUTES = 10;
+
+    private final static String UNKNOWN_HOST = "unknown-host";
+
+    private final ScheduledExecutorService scheduler;
+    private volatile HostIdentity identity;
+
+    public HostIdentityService(long ttl, TimeUnit unit) {
+        if (ttl <= 0)
+            throw new IllegalArgumentException("TTL must be positive: " + ttl);
+        this.identity = fallback(null);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "host-identity");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, ttl, unit);
+    }
+
+    /**
+     * The service shared by the process, started on first use with the default TTL.
+     */
+    public static HostIdentityService getDefault() {
+        return Default.INSTANCE;
+    }
+
+    public HostIdentity get() {
+        return identity;
+    }
+
+    /**
+     * Stops refreshing, the last identity stays available.
+     */
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void refresh() {
+        HostIdentity current = identity;
+        HostIdentity next;
+        try {
+            String hostName = InetAddress.getLocalHost().getHostName();
+            next = new HostIdentity(hostName, addresses(), ProcessHandle.current().pid(), true);
+        } catch (Throwable e) {
+            // Errors as well: once the task throws, the scheduler never runs it again.
+            // A host name resolved before is better than any fallback
+            next = current.isResolved() ? current : fallback(current);
+        }
+        if (!next.sameAs(current))
+            identity = next;
+    }
+
+    private static HostIdentity fallback(HostIdentity previous) {
+        String hostName = System.getenv("HOSTNAME");
+        if (hostName == null || hostName.isEmpty())
+            hostName = System.getenv("COMPUTERNAME");
+        if (hostName == null || hostName.isEmpty())
+            hostName = UNKNOWN_HOST;
+        List<String> addresses = previous != null ? previous.getAddresses() : addresses();
+        return new HostIdentity(hostName, addresses, ProcessHandle.current().pid(), false);
+    }
+
+    // Addresses of the interfaces which are up, IPv4 and non-loopback ones first
+    private static List<String> addresses() {
+        List<String> v4 = new ArrayList<>();
+        List<String> v6 = new ArrayList<>();
+        List<String> loopback = new ArrayList<>();
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while (interfaces != null && interfaces.hasMoreElements()) {
+                NetworkInterface ni = interfaces.nextElement();
+                if (!ni.isUp())
+                    continue;
+                for (Enumeration<InetAddress> e = ni.getInetAddresses(); e.hasMoreElements(); ) {
+                    InetAddress a = e.nextElement();
+                    if (a.isLoopbackAddress())
+                        loopback.add(a.getHostAddress());
+                    else if (a instanceof Inet4Address)
+                        v4.add(a.getHostAddress());
+                    else
+                        v6.add(a.getHostAddress());
+                }
+            }
+        } catch (SocketException e) {
+            // Only the loopback then
+        }
+        v4.addAll(v6);
+        v4.addAll(loopback);
+        if (v4.isEmpty())
+            v4.add(InetAddress.getLoopbackAddress().getHostAddress());
+        return v4;
+    }
+
+    private static final class Default {
+        private final static HostIdentityService INSTANCE = new HostIdentityService(DEFAULT_TTL_MINUTES, TimeUnit.MINUTES);
+    }
+}
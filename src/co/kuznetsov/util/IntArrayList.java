@@ -0,0 +1,151 @@
+package co.kuznetsov.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Growable list of unboxed ints, instead of ArrayList&lt;Integer&gt;.
+ */
+public class IntArrayList {
+    private final int initialCapacity;
+    private int[] arr;
+    private int size;
+
+    public IntArrayList(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+        this.initialCapacity = initialCapacity;
+        this.arr = new int[initialCapacity];
+    }
+
+    public IntArrayList() {
+        this(16);
+    }
+
+    public void add(int value) {
+        if (size == arr.length)
+            arr = Arrays.copyOf(arr, Capacity.grow(arr.length, size + 1));
+        arr[size++] = value;
+    }
+
+    public void add(int index, int value) {
+        if (index < 0 || index > size)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        if (size == arr.length)
+            arr = Arrays.copyOf(arr, Capacity.grow(arr.length, size + 1));
+        System.arraycopy(arr, index, arr, index + 1, size - index);
+        arr[index] = value;
+        size++;
+    }
+
+    public void addAll(int[] values, int offset, int length) {
+        ensureCapacity(size + length);
+        System.arraycopy(values, offset, arr, size, length);
+        size += length;
+    }
+
+    public void addAll(IntArrayList other) {
+        addAll(other.arr, 0, other.size);
+    }
+
+    public int get(int index) {
+        checkIndex(index);
+        return arr[index];
+    }
+
+    /**
+     * @return the previous value
+     */
+    public int set(int index, int value) {
+        checkIndex(index);
+        int old = arr[index];
+        arr[index] = value;
+        return old;
+    }
+
+    /**
+     * Removes the element at the index, shifting the following ones.
+     *
+     * @return the removed value
+     */
+    public int removeAt(int index) {
+        checkIndex(index);
+        int old = arr[index];
+        System.arraycopy(arr, index + 1, arr, index, size - index - 1);
+        size--;
+        return old;
+    }
+
+    public int removeLast() {
+        if (size == 0)
+            throw new IllegalStateException("List is empty");
+        return arr[--size];
+    }
+
+    public int indexOf(int value) {
+        for (int i = 0; i < size; i++) {
+            if (arr[i] == value)
+                return i;
+        }
+        return -1;
+    }
+
+    public boolean contains(int value) {
+        return indexOf(value) >= 0;
+    }
+
+    public void sort() {
+        Arrays.sort(arr, 0, size);
+    }
+
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++)
+            action.accept(arr[i]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > arr.length)
+            arr = Arrays.copyOf(arr, Capacity.grow(arr.length, capacity));
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Clears the list, going back to the initial capacity if it has grown above maxRetainedCapacity.
+     */
+    public void clear(int maxRetainedCapacity) {
+        size = 0;
+        if (arr.length > maxRetainedCapacity)
+            arr = new int[initialCapacity];
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(arr, size);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder().append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(arr[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    }
+}
@@ -0,0 +1,157 @@
+package co.kuznetsov.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Open addressing set of ints, instead of HashSet&lt;Integer&gt;. Probed linearly, removal shifts the following
+ * entries back instead of leaving tombstones.
+ */
+public class IntHashSet {
+    private final int initialCapacity;
+    private int[] keys;
+    private int mask;
+    private int size;
+    private int threshold;
+    // 0 marks free slots, so it is kept aside
+    private boolean hasZero;
+
+    /**
+     * @param expectedSize number of values it holds without growing
+     */
+    public IntHashSet(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Negative size: " + expectedSize);
+        this.initialCapacity = Capacity.table(expectedSize);
+        allocate(initialCapacity);
+    }
+
+    public IntHashSet() {
+        this(16);
+    }
+
+    /**
+     * @return whether the value wasn't there yet
+     */
+    public boolean add(int value) {
+        if (value == 0) {
+            if (hasZero)
+                return false;
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int i = slot(value);
+        if (keys[i] == value)
+            return false;
+        keys[i] = value;
+        if (++size > threshold)
+            rehash(keys.length << 1);
+        return true;
+    }
+
+    public boolean contains(int value) {
+        if (value == 0)
+            return hasZero;
+        return keys[slot(value)] == value;
+    }
+
+    /**
+     * @return whether the value was there
+     */
+    public boolean remove(int value) {
+        if (value == 0) {
+            if (!hasZero)
+                return false;
+            hasZero = false;
+            size--;
+            return true;
+        }
+        int i = slot(value);
+        if (keys[i] != value)
+            return false;
+        int[] keys = this.keys;
+        for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = Capacity.hash(keys[j]) & mask;
+            if (j > i ? home <= i || home > j : home <= i && home > j) {
+                keys[i] = keys[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(IntConsumer action) {
+        if (hasZero)
+            action.accept(0);
+        for (int k : keys) {
+            if (k != 0)
+                action.accept(k);
+        }
+    }
+
+    public int[] toArray() {
+        int[] a = new int[size];
+        int n = 0;
+        if (hasZero)
+            a[n++] = 0;
+        for (int k : keys) {
+            if (k != 0)
+                a[n++] = k;
+        }
+        return a;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        hasZero = false;
+        size = 0;
+    }
+
+    /**
+     * Clears the set, going back to the initial capacity if it has grown above maxRetainedCapacity slots.
+     */
+    public void clear(int maxRetainedCapacity) {
+        if (keys.length > maxRetainedCapacity) {
+            allocate(initialCapacity);
+            hasZero = false;
+            size = 0;
+        } else {
+            clear();
+        }
+    }
+
+    private int slot(int value) {
+        int[] keys = this.keys;
+        for (int i = Capacity.hash(value) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == value || k == 0)
+                return i;
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] old = keys;
+        allocate(capacity);
+        for (int k : old) {
+            if (k != 0)
+                keys[slot(k)] = k;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        mask = capacity - 1;
+        threshold = capacity - (capacity >> 2);
+    }
+}
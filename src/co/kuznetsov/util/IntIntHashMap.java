@@ -0,0 +1,221 @@
+package co.kuznetsov.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing int to int hash map, instead of HashMap&lt;Integer, Integer&gt;.
+ * <p>
+ * Keys and values sit in two arrays probed linearly, removal shifts the following entries back instead of
+ * leaving tombstones. Absent keys read as the missing value given at construction.
+ */
+public class IntIntHashMap {
+    private final int initialCapacity;
+    private final int missingValue;
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int threshold;
+    // 0 marks free slots, so the entry of key 0 is kept aside
+    private boolean hasZero;
+    private int zeroValue;
+
+    /**
+     * @param expectedSize number of entries it holds without growing
+     * @param missingValue what get and remove return for absent keys
+     */
+    public IntIntHashMap(int expectedSize, int missingValue) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Negative size: " + expectedSize);
+        this.initialCapacity = Capacity.table(expectedSize);
+        this.missingValue = missingValue;
+        allocate(initialCapacity);
+    }
+
+    public IntIntHashMap() {
+        this(16, 0);
+    }
+
+    public int get(int key) {
+        if (key == 0)
+            return hasZero ? zeroValue : missingValue;
+        int[] keys = this.keys;
+        for (int i = Capacity.hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key)
+                return values[i];
+            if (k == 0)
+                return missingValue;
+        }
+    }
+
+    public boolean containsKey(int key) {
+        if (key == 0)
+            return hasZero;
+        int[] keys = this.keys;
+        for (int i = Capacity.hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key)
+                return true;
+            if (k == 0)
+                return false;
+        }
+    }
+
+    /**
+     * @return the previous value or the missing value
+     */
+    public int put(int key, int value) {
+        if (key == 0) {
+            int old = hasZero ? zeroValue : missingValue;
+            if (!hasZero) {
+                hasZero = true;
+                size++;
+            }
+            zeroValue = value;
+            return old;
+        }
+        int i = slot(key);
+        if (keys[i] == key) {
+            int old = values[i];
+            values[i] = value;
+            return old;
+        }
+        insert(i, key, value);
+        return missingValue;
+    }
+
+    /**
+     * Adds delta to the key's value, an absent key starting from 0.
+     *
+     * @return the new value
+     */
+    public int addTo(int key, int delta) {
+        if (key == 0) {
+            if (!hasZero) {
+                hasZero = true;
+                zeroValue = 0;
+                size++;
+            }
+            return zeroValue += delta;
+        }
+        int i = slot(key);
+        if (keys[i] == key)
+            return values[i] += delta;
+        insert(i, key, delta);
+        return delta;
+    }
+
+    /**
+     * @return the removed value or the missing value
+     */
+    public int remove(int key) {
+        if (key == 0) {
+            if (!hasZero)
+                return missingValue;
+            hasZero = false;
+            size--;
+            return zeroValue;
+        }
+        int i = slot(key);
+        if (keys[i] != key)
+            return missingValue;
+        int old = values[i];
+        // Moves back the entries of the run that can't be found past the freed slot any more
+        int[] keys = this.keys;
+        for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = Capacity.hash(keys[j]) & mask;
+            if (j > i ? home <= i || home > j : home <= i && home > j) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        size--;
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getMissingValue() {
+        return missingValue;
+    }
+
+    public void forEach(EntryConsumer action) {
+        if (hasZero)
+            action.accept(0, zeroValue);
+        int[] keys = this.keys;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0)
+                action.accept(keys[i], values[i]);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        hasZero = false;
+        size = 0;
+    }
+
+    /**
+     * Clears the map, going back to the initial capacity if it has grown above maxRetainedCapacity slots.
+     */
+    public void clear(int maxRetainedCapacity) {
+        if (keys.length > maxRetainedCapacity) {
+            allocate(initialCapacity);
+            hasZero = false;
+            size = 0;
+        } else {
+            clear();
+        }
+    }
+
+    public interface EntryConsumer {
+        void accept(int key, int value);
+    }
+
+    // The key's slot or the free slot ending its run
+    private int slot(int key) {
+        int[] keys = this.keys;
+        for (int i = Capacity.hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key || k == 0)
+                return i;
+        }
+    }
+
+    private void insert(int i, int key, int value) {
+        keys[i] = key;
+        values[i] = value;
+        if (++size > threshold)
+            rehash(keys.length << 1);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            int k = oldKeys[j];
+            if (k != 0) {
+                int i = slot(k);
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        threshold = capacity - (capacity >> 2);
+    }
+}
@@ -0,0 +1,79 @@
+package co.kuznetsov.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable int stack. It doesn't create any garbage once it has grown to the depth it's used at.
+ */
+public class IntStack {
+    private final int initialCapacity;
+    private int[] arr;
+    private int size;
+
+    public IntStack(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+        this.initialCapacity = initialCapacity;
+        this.arr = new int[initialCapacity];
+    }
+
+    public IntStack() {
+        this(16);
+    }
+
+    public void push(int value) {
+        if (size == arr.length)
+            arr = Arrays.copyOf(arr, Capacity.grow(arr.length, size + 1));
+        arr[size++] = value;
+    }
+
+    public int pop() {
+        if (size == 0)
+            throw new IllegalStateException("Stack is empty");
+        return arr[--size];
+    }
+
+    public int peek() {
+        if (size == 0)
+            throw new IllegalStateException("Stack is empty");
+        return arr[size - 1];
+    }
+
+    /**
+     * Element at the depth from the top, 0 being the top.
+     */
+    public int peek(int depth) {
+        if (depth < 0 || depth >= size)
+            throw new IndexOutOfBoundsException("Depth " + depth + " out of bounds for size " + size);
+        return arr[size - 1 - depth];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return arr.length;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Clears the stack, going back to the initial capacity if it has grown above maxRetainedCapacity.
+     */
+    public void clear(int maxRetainedCapacity) {
+        size = 0;
+        if (arr.length > maxRetainedCapacity)
+            arr = new int[initialCapacity];
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(arr, size);
+    }
+}
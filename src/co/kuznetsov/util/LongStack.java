@@ -0,0 +1,79 @@
+package co.kuznetsov.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable long stack. It doesn't create any garbage once it has grown to the depth it's used at.
+ */
+public class LongStack {
+    private final int initialCapacity;
+    private long[] arr;
+    private int size;
+
+    public LongStack(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+        this.initialCapacity = initialCapacity;
+        this.arr = new long[initialCapacity];
+    }
+
+    public LongStack() {
+        this(16);
+    }
+
+    public void push(long value) {
+        if (size == arr.length)
+            arr = Arrays.copyOf(arr, Capacity.grow(arr.length, size + 1));
+        arr[size++] = value;
+    }
+
+    public long pop() {
+        if (size == 0)
+            throw new IllegalStateException("Stack is empty");
+        return arr[--size];
+    }
+
+    public long peek() {
+        if (size == 0)
+            throw new IllegalStateException("Stack is empty");
+        return arr[size - 1];
+    }
+
+    /**
+     * Element at the depth from the top, 0 being the top.
+     */
+    public long peek(int depth) {
+        if (depth < 0 || depth >= size)
+            throw new IndexOutOfBoundsException("Depth " + depth + " out of bounds for size " + size);
+        return arr[size - 1 - depth];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return arr.length;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Clears the stack, going back to the initial capacity if it has grown above maxRetainedCapacity.
+     */
+    public void clear(int maxRetainedCapacity) {
+        size = 0;
+        if (arr.length > maxRetainedCapacity)
+            arr = new long[initialCapacity];
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(arr, size);
+    }
+}
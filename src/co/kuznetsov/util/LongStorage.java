@@ -0,0 +1,160 @@
+package co.kuznetsov.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Longs outside of the heap for the off-heap collections, indexed by long. They are kept in chunks of direct
+ * buffers, or of a file mapped into memory, added as the storage grows. A buffer can't hold more than 2GB,
+ * chunks of a fixed power of two size make the index math a shift and a mask.
+ * <p>
+ * Chunks are freed on close, not when GC gets to them: direct buffers are released and mappings unmapped
+ * through Unsafe.invokeCleaner. Accessing the storage after that throws IndexOutOfBoundsException.
+ */
+final class LongStorage implements AutoCloseable {
+
+    // Chunks of 8MB
+    final static int DEFAULT_SHIFT = 20;
+
+    private final static ByteBuffer[] CLOSED = new ByteBuffer[0];
+    private final static MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+    private final int shift;
+    private final long mask;
+    private final FileChannel channel;
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    private int count;
+
+    /**
+     * Direct memory in chunks of 2^shift longs.
+     */
+    LongStorage(int shift) {
+        if (shift < 3 || shift > 27)
+            throw new IllegalArgumentException("Chunk shift out of range [3, 27]: " + shift);
+        this.shift = shift;
+        this.mask = (1L << shift) - 1;
+        this.channel = null;
+    }
+
+    /**
+     * The file mapped in chunks of 2^shift longs, creating it if needed. All of an existing file is mapped.
+     */
+    LongStorage(Path file, int shift) throws IOException {
+        if (shift < 3 || shift > 27)
+            throw new IllegalArgumentException("Chunk shift out of range [3, 27]: " + shift);
+        this.shift = shift;
+        this.mask = (1L << shift) - 1;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long bytes = channel.size();
+            long chunkBytes = 8L << shift;
+            ensureCapacity((bytes + chunkBytes - 1) / chunkBytes << shift);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    long capacity() {
+        return (long) count << shift;
+    }
+
+    long get(long index) {
+        return chunks[(int) (index >>> shift)].getLong((int) (index & mask) << 3);
+    }
+
+    void set(long index, long value) {
+        chunks[(int) (index >>> shift)].putLong((int) (index & mask) << 3, value);
+    }
+
+    /**
+     * Adds chunks until there is room for the number of longs.
+     */
+    void ensureCapacity(long longs) {
+        if (chunks == CLOSED)
+            throw new IllegalStateException("Closed");
+        while (capacity() < longs) {
+            if (count == chunks.length) {
+                ByteBuffer[] grown = new ByteBuffer[count * 2];
+                System.arraycopy(chunks, 0, grown, 0, count);
+                chunks = grown;
+            }
+            int bytes = 8 << shift;
+            ByteBuffer chunk;
+            if (channel != null) {
+                try {
+                    chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long) count * bytes, bytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                chunk = ByteBuffer.allocateDirect(bytes);
+            }
+            chunks[count++] = chunk.order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Writes the mapped chunks back to the file. Does nothing for direct memory.
+     */
+    void force() {
+        if (channel == null)
+            return;
+        for (int i = 0; i < count; i++)
+            ((MappedByteBuffer) chunks[i]).force();
+    }
+
+    /**
+     * Frees all the chunks, closing the file if mapped. Closing twice does nothing.
+     */
+    public void close() {
+        ByteBuffer[] c = chunks;
+        int n = count;
+        chunks = CLOSED;
+        count = 0;
+        for (int i = 0; i < n; i++)
+            free(c[i]);
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static void free(ByteBuffer b) {
+        try {
+            if (INVOKE_CLEANER != null)
+                INVOKE_CLEANER.invokeExact(b);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    // sun.misc.Unsafe.invokeCleaner bound to the instance, null where it isn't available and GC has to do
+    private static MethodHandle invokeCleaner() {
+        try {
+            Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            Field f = unsafe.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafe, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(f.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
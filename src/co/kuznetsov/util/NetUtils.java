@@ -1,19 +1,16 @@
 package co.kuznetsov.util;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-
 /**
  * @author localstorm
  *         Date: 4/2/14
  */
 public class NetUtils {
+    /**
+     * Never blocks: until the host name is resolved in the background it's the fallback one.
+     *
+     * @see HostIdentityService
+     */
     public static String getHostName() {
-        try {
-            InetAddress addr = InetAddress.getLocalHost();
-            return addr.getHostName();
-        } catch (UnknownHostException e) {
-            return "unknown-host";
-        }
+        return HostIdentityService.getDefault().get().getHostName();
     }
 }
@@ -0,0 +1,119 @@
+package co.kuznetsov.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * List of longs kept outside of the heap and indexed by long, for working sets too large to leave to GC.
+ * The memory is taken in chunks as the list grows and freed by {@link #close()}, the list must not be used
+ * after that.
+ * <p>
+ * Backed by a file the list persists: its size is stored in the file on {@link #force()} and close,
+ * opening the file again continues where it was left.
+ * <p>
+ * The instances of OffHeapLongArrayList are non-thread safe.
+ */
+public class OffHeapLongArrayList implements AutoCloseable {
+    private final static long MAGIC = 0x4F48_4C4C_4953_5400L;
+    // magic, size
+    private final static int HEADER = 2;
+
+    private final LongStorage storage;
+    private long size;
+
+    public OffHeapLongArrayList() {
+        this.storage = new LongStorage(LongStorage.DEFAULT_SHIFT);
+        init();
+    }
+
+    /**
+     * Opens the list stored in the file, creating an empty one if the file is empty or doesn't exist.
+     */
+    public OffHeapLongArrayList(Path file) throws IOException {
+        this.storage = new LongStorage(file, LongStorage.DEFAULT_SHIFT);
+        if (storage.capacity() == 0) {
+            init();
+        } else if (storage.get(0) != MAGIC) {
+            storage.close();
+            throw new IllegalArgumentException("Not a list file: " + file);
+        } else {
+            size = storage.get(1);
+        }
+    }
+
+    public void add(long value) {
+        long i = HEADER + size;
+        if (i == storage.capacity())
+            storage.ensureCapacity(i + 1);
+        storage.set(i, value);
+        size++;
+    }
+
+    public long get(long index) {
+        checkIndex(index);
+        return storage.get(HEADER + index);
+    }
+
+    /**
+     * @return the previous value
+     */
+    public long set(long index, long value) {
+        checkIndex(index);
+        long old = storage.get(HEADER + index);
+        storage.set(HEADER + index, value);
+        return old;
+    }
+
+    public long removeLast() {
+        if (size == 0)
+            throw new IllegalStateException("List is empty");
+        return storage.get(HEADER + --size);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Makes room for the number of elements up front.
+     */
+    public void ensureCapacity(long capacity) {
+        storage.ensureCapacity(HEADER + capacity);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Writes the list to its file, if it has one.
+     */
+    public void force() {
+        storage.set(1, size);
+        storage.force();
+    }
+
+    /**
+     * Frees the memory, or stores the size and unmaps the file.
+     */
+    public void close() {
+        if (storage.capacity() > 0)
+            storage.set(1, size);
+        storage.close();
+    }
+
+    private void init() {
+        storage.ensureCapacity(HEADER);
+        storage.set(0, MAGIC);
+        storage.set(1, 0);
+    }
+
+    private void checkIndex(long index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    }
+}
@@ -0,0 +1,229 @@
+package co.kuznetsov.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Long to long hash table kept outside of the heap, for working sets too large to leave to GC.
+ * <p>
+ * The number of slots is fixed at creation, all the memory is taken up front and freed by {@link #close()},
+ * the table must not be used after that. It's filled up to 3/4 of the slots, putting more keys throws
+ * IllegalStateException. Keys and values are interleaved and probed linearly, removal shifts the following
+ * entries back, same as {@link LongLongHashMap}.
+ * <p>
+ * Backed by a file the table persists: the size is stored in the file on {@link #force()} and close,
+ * opening the file again continues where it was left.
+ * <p>
+ * The instances of OffHeapLongLongHashMap are non-thread safe.
+ */
+public class OffHeapLongLongHashMap implements AutoCloseable {
+    private final static long MAGIC = 0x4F48_4C4C_4D41_5000L;
+    // magic, size, slots, missing value, has zero key, zero key's value
+    private final static int HEADER = 6;
+
+    private final LongStorage storage;
+    private final long mask;
+    private final long maxSize;
+    private final long missingValue;
+    private long size;
+    // 0 marks free slots, so the entry of key 0 is kept aside
+    private boolean hasZero;
+    private long zeroValue;
+
+    /**
+     * @param maxSize      number of entries the table has to hold
+     * @param missingValue what get and remove return for absent keys
+     */
+    public OffHeapLongLongHashMap(long maxSize, long missingValue) {
+        this.storage = new LongStorage(LongStorage.DEFAULT_SHIFT);
+        long slots = slots(maxSize);
+        this.mask = slots - 1;
+        this.maxSize = slots - (slots >> 2);
+        this.missingValue = missingValue;
+        init(slots);
+    }
+
+    /**
+     * Opens the table stored in the file, creating one sized for maxSize entries if the file is empty or
+     * doesn't exist. An existing table keeps its own number of slots and missing value.
+     */
+    public OffHeapLongLongHashMap(Path file, long maxSize, long missingValue) throws IOException {
+        this.storage = new LongStorage(file, LongStorage.DEFAULT_SHIFT);
+        if (storage.capacity() == 0) {
+            long slots = slots(maxSize);
+            this.mask = slots - 1;
+            this.missingValue = missingValue;
+            init(slots);
+        } else if (storage.get(0) != MAGIC) {
+            storage.close();
+            throw new IllegalArgumentException("Not a hash map file: " + file);
+        } else {
+            this.size = storage.get(1);
+            this.mask = storage.get(2) - 1;
+            this.missingValue = storage.get(3);
+            this.hasZero = storage.get(4) != 0;
+            this.zeroValue = storage.get(5);
+        }
+        this.maxSize = mask + 1 - (mask + 1 >> 2);
+    }
+
+    public long get(long key) {
+        if (key == 0)
+            return hasZero ? zeroValue : missingValue;
+        for (long i = hash(key) & mask; ; i = (i + 1) & mask) {
+            long k = storage.get(HEADER + 2 * i);
+            if (k == key)
+                return storage.get(HEADER + 2 * i + 1);
+            if (k == 0)
+                return missingValue;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0)
+            return hasZero;
+        return storage.get(HEADER + 2 * slot(key)) == key;
+    }
+
+    /**
+     * @return the previous value or the missing value
+     * @throws IllegalStateException if the key is new and the table is full
+     */
+    public long put(long key, long value) {
+        if (key == 0) {
+            long old = hasZero ? zeroValue : missingValue;
+            if (!hasZero) {
+                hasZero = true;
+                size++;
+            }
+            zeroValue = value;
+            return old;
+        }
+        long i = slot(key);
+        long k = HEADER + 2 * i;
+        if (storage.get(k) == key) {
+            long old = storage.get(k + 1);
+            storage.set(k + 1, value);
+            return old;
+        }
+        if (size >= maxSize)
+            throw new IllegalStateException("Hash map is full: " + size);
+        storage.set(k, key);
+        storage.set(k + 1, value);
+        size++;
+        return missingValue;
+    }
+
+    /**
+     * @return the removed value or the missing value
+     */
+    public long remove(long key) {
+        if (key == 0) {
+            if (!hasZero)
+                return missingValue;
+            hasZero = false;
+            size--;
+            return zeroValue;
+        }
+        long i = slot(key);
+        if (storage.get(HEADER + 2 * i) != key)
+            return missingValue;
+        long old = storage.get(HEADER + 2 * i + 1);
+        for (long j = (i + 1) & mask; ; j = (j + 1) & mask) {
+            long k = storage.get(HEADER + 2 * j);
+            if (k == 0)
+                break;
+            long home = hash(k) & mask;
+            if (j > i ? home <= i || home > j : home <= i && home > j) {
+                storage.set(HEADER + 2 * i, k);
+                storage.set(HEADER + 2 * i + 1, storage.get(HEADER + 2 * j + 1));
+                i = j;
+            }
+        }
+        storage.set(HEADER + 2 * i, 0);
+        size--;
+        return old;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getMissingValue() {
+        return missingValue;
+    }
+
+    public void forEach(LongLongHashMap.EntryConsumer action) {
+        if (hasZero)
+            action.accept(0, zeroValue);
+        for (long i = 0; i <= mask; i++) {
+            long k = storage.get(HEADER + 2 * i);
+            if (k != 0)
+                action.accept(k, storage.get(HEADER + 2 * i + 1));
+        }
+    }
+
+    public void clear() {
+        for (long i = 0; i <= mask; i++)
+            storage.set(HEADER + 2 * i, 0);
+        hasZero = false;
+        size = 0;
+    }
+
+    /**
+     * Writes the table to its file, if it has one.
+     */
+    public void force() {
+        header();
+        storage.force();
+    }
+
+    /**
+     * Frees the memory, or stores the header and unmaps the file.
+     */
+    public void close() {
+        if (storage.capacity() > 0)
+            header();
+        storage.close();
+    }
+
+    private void init(long slots) {
+        // Both new direct memory and the extended file read as zeroes, free slots
+        storage.ensureCapacity(HEADER + 2 * slots);
+        storage.set(0, MAGIC);
+        storage.set(2, slots);
+        storage.set(3, missingValue);
+    }
+
+    private void header() {
+        storage.set(1, size);
+        storage.set(4, hasZero ? 1 : 0);
+        storage.set(5, zeroValue);
+    }
+
+    // The key's slot or the free slot ending its run
+    private long slot(long key) {
+        for (long i = hash(key) & mask; ; i = (i + 1) & mask) {
+            long k = storage.get(HEADER + 2 * i);
+            if (k == key || k == 0)
+                return i;
+        }
+    }
+
+    private static long hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ h >>> 32;
+    }
+
+    // Power of two keeping maxSize entries at most 3/4 full
+    private static long slots(long maxSize) {
+        if (maxSize < 0 || maxSize > 1L << 58)
+            throw new IllegalArgumentException("Size out of range: " + maxSize);
+        long n = Math.max(4, maxSize * 4 / 3 + 1);
+        return Long.highestOneBit(n - 1) << 1;
+    }
+}
@@ -0,0 +1,97 @@
+package co.kuznetsov.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Long stack kept outside of the heap, for working sets too large to leave to GC. The memory is taken
+ * in chunks as the stack grows and freed by {@link #close()}, the stack must not be used after that.
+ * <p>
+ * Backed by a file the stack persists: its size is stored in the file on {@link #force()} and close,
+ * opening the file again continues where it was left.
+ * <p>
+ * The instances of OffHeapLongStack are non-thread safe.
+ */
+public class OffHeapLongStack implements AutoCloseable {
+    private final static long MAGIC = 0x4F48_4C53_5441_434BL;
+    // magic, size
+    private final static int HEADER = 2;
+
+    private final LongStorage storage;
+    private long size;
+
+    public OffHeapLongStack() {
+        this.storage = new LongStorage(LongStorage.DEFAULT_SHIFT);
+        init();
+    }
+
+    /**
+     * Opens the stack stored in the file, creating an empty one if the file is empty or doesn't exist.
+     */
+    public OffHeapLongStack(Path file) throws IOException {
+        this.storage = new LongStorage(file, LongStorage.DEFAULT_SHIFT);
+        if (storage.capacity() == 0) {
+            init();
+        } else if (storage.get(0) != MAGIC) {
+            storage.close();
+            throw new IllegalArgumentException("Not a stack file: " + file);
+        } else {
+            size = storage.get(1);
+        }
+    }
+
+    public void push(long value) {
+        long i = HEADER + size;
+        if (i == storage.capacity())
+            storage.ensureCapacity(i + 1);
+        storage.set(i, value);
+        size++;
+    }
+
+    public long pop() {
+        if (size == 0)
+            throw new IllegalStateException("Stack is empty");
+        return storage.get(HEADER + --size);
+    }
+
+    public long peek() {
+        if (size == 0)
+            throw new IllegalStateException("Stack is empty");
+        return storage.get(HEADER + size - 1);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Writes the stack to its file, if it has one.
+     */
+    public void force() {
+        storage.set(1, size);
+        storage.force();
+    }
+
+    /**
+     * Frees the memory, or stores the size and unmaps the file.
+     */
+    public void close() {
+        if (storage.capacity() > 0)
+            storage.set(1, size);
+        storage.close();
+    }
+
+    private void init() {
+        storage.ensureCapacity(HEADER);
+        storage.set(0, MAGIC);
+        storage.set(1, 0);
+    }
+}
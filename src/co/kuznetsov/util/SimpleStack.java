@@ -2,6 +2,7 @@ package co.kuznetsov.util;
 
 /**
  * Highly efficient fixed size int stack. It doesn't create any garbage
+ * @see IntStack for a growable one
  */
 public class SimpleStack {
     private int arr[];
@@ -30,6 +31,10 @@ public class SimpleStack {
         }
     }
 
+    public int size() {
+        return top + 1;
+    }
+
     public boolean empty() {
         return top < 0;
     }
@@ -0,0 +1,333 @@
+package co.kuznetsov.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct buffers in power-of-two size classes, carved out of large direct slabs so that
+ * ByteBuffer.allocateDirect is called once per slab rather than once per buffer.
+ * <p>
+ * Every size class has a shared lock-free free list, in front of it every platform thread keeps a small cache
+ * of its own, so most acquire/release pairs touch no shared state. Virtual threads go to the free lists
+ * directly, a cache per virtual thread would mostly hold buffers nobody takes again.
+ * The caches of threads that have terminated are drained back to the free lists whenever a thread creates
+ * its cache and before an acquisition goes over the limit.
+ * <p>
+ * Slabs are allocated while the total stays within maxBytes, after that buffers are allocated one by one and
+ * counted as well. A free list holds at least a slab's worth of buffers of its class, a buffer released to a
+ * full one is left to GC and its bytes no longer count against maxBytes.
+ * Requests above the largest size class aren't pooled at all.
+ * <p>
+ * In debug mode every acquisition is recorded with its stack trace until release: {@link #leaks()} lists the
+ * buffers still out and releasing a buffer twice or one from elsewhere throws IllegalStateException.
+ */
+public class SlabByteBufferPool implements ByteBufferPool {
+    private final int minShift;
+    private final int maxShift;
+    private final int slabSize;
+    private final long maxBytes;
+    private final int threadCacheSize;
+    private final FreeList[] freeLists;
+    private final AtomicLong slabBytes = new AtomicLong();
+    private final ThreadLocal<ThreadCache> caches;
+    private final ConcurrentLinkedQueue<ThreadCache> threadCaches = new ConcurrentLinkedQueue<>();
+    private final Map<ByteBuffer, Throwable> outstanding;
+
+    private final LongAdder acquires = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder bytesOutstanding = new LongAdder();
+
+    /**
+     * Size classes from 64 bytes to 64K in 1M slabs, 16 buffers per class cached by every thread.
+     */
+    public SlabByteBufferPool(long maxBytes) {
+        this(64, 64 * 1024, 1024 * 1024, maxBytes, 16, false);
+    }
+
+    /**
+     * @param minSize         smallest size class, rounded up to a power of two
+     * @param maxSize         largest size class, rounded up to a power of two, at most slabSize
+     * @param slabSize        bytes allocated at once when a size class runs out, the free list of every
+     *                        size class holds at least this many bytes of buffers
+     * @param maxBytes        limit of the bytes allocated as slabs
+     * @param threadCacheSize buffers of every size class a thread keeps for itself, 0 for none
+     * @param debug           whether to track outstanding buffers
+     */
+    public SlabByteBufferPool(int minSize, int maxSize, int slabSize, long maxBytes, int threadCacheSize, boolean debug) {
+        if (minSize <= 0 || maxSize < minSize || slabSize < maxSize)
+            throw new IllegalArgumentException("Expected 0 < minSize <= maxSize <= slabSize: "
+                    + minSize + ", " + maxSize + ", " + slabSize);
+        if (threadCacheSize < 0)
+            throw new IllegalArgumentException("Negative thread cache size: " + threadCacheSize);
+        this.minShift = shift(minSize);
+        this.maxShift = shift(maxSize);
+        if (slabSize < 1 << maxShift)
+            throw new IllegalArgumentException("Slab is smaller than the largest size class: " + slabSize);
+        this.slabSize = slabSize;
+        this.maxBytes = maxBytes;
+        this.threadCacheSize = threadCacheSize;
+        this.freeLists = new FreeList[maxShift - minShift + 1];
+        for (int c = 0; c < freeLists.length; c++) {
+            long buffers = Math.min(Math.max(maxBytes, slabSize) >> (minShift + c), 1 << 16);
+            freeLists[c] = new FreeList((int) Math.max(Math.max(buffers, 16), slabSize >> (minShift + c)));
+        }
+        this.caches = ThreadLocal.withInitial(() -> {
+            reclaim();
+            ThreadCache cache = new ThreadCache(Thread.currentThread(), freeLists.length, threadCacheSize);
+            threadCaches.add(cache);
+            return cache;
+        });
+        this.outstanding = debug ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+    }
+
+    public ByteBuffer acquire(int minCapacity) {
+        acquires.increment();
+        if (minCapacity > 1 << maxShift)
+            return ByteBuffer.allocateDirect(minCapacity);
+        int c = sizeClass(minCapacity);
+        ThreadCache cache = cache();
+        ByteBuffer b = cache != null ? cache.pop(c) : null;
+        if (b == null)
+            b = freeLists[c].poll();
+        if (b == null && slabBytes.get() + slabSize > maxBytes && reclaim())
+            b = freeLists[c].poll();
+        if (b != null)
+            hits.increment();
+        else
+            b = allocate(c);
+        bytesOutstanding.add(b.capacity());
+        if (outstanding != null)
+            outstanding.put(b, new Throwable("Acquired " + b.capacity() + " bytes"));
+        return b.clear();
+    }
+
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        // Large ones aren't pooled, left to GC
+        if (capacity > 1 << maxShift && buffer.isDirect())
+            return;
+        if (!buffer.isDirect() || buffer.isReadOnly() || Integer.bitCount(capacity) != 1 || capacity < 1 << minShift) {
+            if (outstanding != null)
+                throw new IllegalStateException("Buffer isn't from this pool: " + buffer);
+            return;
+        }
+        if (outstanding != null && outstanding.remove(buffer) == null)
+            throw new IllegalStateException("Buffer wasn't acquired from this pool or is released twice");
+        releases.increment();
+        bytesOutstanding.add(-capacity);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        int c = Integer.numberOfTrailingZeros(capacity) - minShift;
+        ThreadCache cache = cache();
+        if (cache == null || !cache.push(c, buffer))
+            free(c, buffer);
+    }
+
+    public long getAcquires() {
+        return acquires.sum();
+    }
+
+    /**
+     * Acquisitions served by a pooled buffer rather than a new one.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public double getHitRate() {
+        long n = acquires.sum();
+        return n == 0 ? 0 : (double) hits.sum() / n;
+    }
+
+    public long getReleases() {
+        return releases.sum();
+    }
+
+    /**
+     * Capacity of the buffers acquired and not released yet, not counting the unpooled large ones.
+     */
+    public long getBytesOutstanding() {
+        return bytesOutstanding.sum();
+    }
+
+    /**
+     * Bytes allocated as slabs and as buffers over the limit, less those of buffers left to GC since.
+     */
+    public long getSlabBytes() {
+        return slabBytes.get();
+    }
+
+    /**
+     * Stack traces of the acquisitions not released yet, empty unless in debug mode.
+     */
+    public List<Throwable> leaks() {
+        if (outstanding == null)
+            return Collections.emptyList();
+        synchronized (outstanding) {
+            return new ArrayList<>(outstanding.values());
+        }
+    }
+
+    // The calling thread's cache, null for virtual threads or when caching is off
+    private ThreadCache cache() {
+        if (threadCacheSize == 0 || Thread.currentThread().isVirtual())
+            return null;
+        return caches.get();
+    }
+
+    // Carves a new slab into buffers of the size class, falls back to a single buffer over the limit
+    private ByteBuffer allocate(int c) {
+        int size = 1 << (minShift + c);
+        long total;
+        do {
+            total = slabBytes.get();
+            if (total + slabSize > maxBytes) {
+                slabBytes.addAndGet(size);
+                return ByteBuffer.allocateDirect(size);
+            }
+        } while (!slabBytes.compareAndSet(total, total + slabSize));
+        ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+        int n = slabSize / size;
+        for (int i = 1; i < n; i++)
+            free(c, slab.slice(i * size, size));
+        return slab.slice(0, size);
+    }
+
+    // A buffer the free list has no room for is left to GC, its bytes are given back to the limit
+    private void free(int c, ByteBuffer b) {
+        if (!freeLists[c].offer(b))
+            slabBytes.addAndGet(-b.capacity());
+    }
+
+    // Drains the caches of terminated threads to the free lists, true if any buffer was there
+    private boolean reclaim() {
+        boolean reclaimed = false;
+        for (ThreadCache cache : threadCaches) {
+            // Only the one removing the cache drains it
+            if (cache.owner.isAlive() || !threadCaches.remove(cache))
+                continue;
+            for (int c = 0; c < freeLists.length; c++) {
+                for (ByteBuffer b; (b = cache.pop(c)) != null; ) {
+                    free(c, b);
+                    reclaimed = true;
+                }
+            }
+        }
+        return reclaimed;
+    }
+
+    private int sizeClass(int capacity) {
+        return Math.max(shift(capacity), minShift) - minShift;
+    }
+
+    private static int shift(int size) {
+        return size <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    // A stack of buffers per size class, touched only by its owner until the owner terminates
+    private static final class ThreadCache {
+        private final Thread owner;
+        private final ByteBuffer[][] buffers;
+        private final int[] counts;
+
+        ThreadCache(Thread owner, int classes, int size) {
+            this.owner = owner;
+            this.buffers = new ByteBuffer[classes][size];
+            this.counts = new int[classes];
+        }
+
+        ByteBuffer pop(int c) {
+            int n = counts[c];
+            if (n == 0)
+                return null;
+            counts[c] = --n;
+            ByteBuffer b = buffers[c][n];
+            buffers[c][n] = null;
+            return b;
+        }
+
+        boolean push(int c, ByteBuffer b) {
+            int n = counts[c];
+            if (n == buffers[c].length)
+                return false;
+            buffers[c][n] = b;
+            counts[c] = n + 1;
+            return true;
+        }
+    }
+
+    /**
+     * Bounded lock-free MPMC queue, Dmitry Vyukov's: every cell has a sequence number telling whether it's
+     * ready to be written or read in the current lap, so producers and consumers only contend on their own counter.
+     */
+    private static final class FreeList {
+        private final AtomicReferenceArray<ByteBuffer> cells;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        FreeList(int capacity) {
+            int n = Integer.highestOneBit(capacity);
+            if (n < capacity)
+                n <<= 1;
+            this.cells = new AtomicReferenceArray<>(n);
+            this.sequences = new AtomicLongArray(n);
+            this.mask = n - 1;
+            for (int i = 0; i < n; i++)
+                sequences.set(i, i);
+        }
+
+        // False when full, the buffer is then left to GC
+        boolean offer(ByteBuffer b) {
+            long pos = tail.get();
+            for (; ; ) {
+                int i = (int) pos & mask;
+                long d = sequences.get(i) - pos;
+                if (d == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        cells.lazySet(i, b);
+                        sequences.set(i, pos + 1);
+                        return true;
+                    }
+                    pos = tail.get();
+                } else if (d < 0) {
+                    return false;
+                } else {
+                    pos = tail.get();
+                }
+            }
+        }
+
+        ByteBuffer poll() {
+            long pos = head.get();
+            for (; ; ) {
+                int i = (int) pos & mask;
+                long d = sequences.get(i) - (pos + 1);
+                if (d == 0) {
+                    if (head.compareAndSet(pos, pos + 1)) {
+                        ByteBuffer b = cells.get(i);
+                        cells.lazySet(i, null);
+                        sequences.set(i, pos + mask + 1);
+                        return b;
+                    }
+                    pos = head.get();
+                } else if (d < 0) {
+                    return null;
+                } else {
+                    pos = head.get();
+                }
+            }
+        }
+    }
+}
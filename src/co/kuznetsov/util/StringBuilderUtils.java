@@ -46,6 +46,10 @@ public class StringBuilderUtils {
     }
 
     public static int parseInt(StringBuilder sb, int offset, int radix) throws NumberFormatException {
+        return parseInt((CharSequence) sb, offset, radix);
+    }
+
+    public static int parseInt(CharSequence sb, int offset, int radix) throws NumberFormatException {
         if (sb == null) {
             throw new NumberFormatException("null");
         }
@@ -74,10 +78,10 @@ public class StringBuilderUtils {
                     negative = true;
                     limit = Integer.MIN_VALUE;
                 } else if (firstChar != '+')
-                    nfe(sb.substring(offset));
+                    nfe(sb.subSequence(offset, sb.length()).toString());
 
                 if (len == 1) // Cannot have lone "+" or "-"
-                    nfe(sb.substring(offset));
+                    nfe(sb.subSequence(offset, sb.length()).toString());
                 i++;
             }
             multmin = limit / radix;
@@ -85,24 +89,28 @@ public class StringBuilderUtils {
                 // Accumulating negatively avoids surprises near MAX_VALUE
                 digit = Character.digit(sb.charAt(i++),radix);
                 if (digit < 0) {
-                    nfe(sb.substring(offset));
+                    nfe(sb.subSequence(offset, sb.length()).toString());
                 }
                 if (result < multmin) {
-                    nfe(sb.substring(offset));
+                    nfe(sb.subSequence(offset, sb.length()).toString());
                 }
                 result *= radix;
                 if (result < limit + digit) {
-                    nfe(sb.substring(offset));
+                    nfe(sb.subSequence(offset, sb.length()).toString());
                 }
                 result -= digit;
             }
         } else {
-            nfe(sb.substring(offset));
+            nfe(sb.subSequence(offset, sb.length()).toString());
         }
         return negative ? result : -result;
     }
 
     public static long parseLong(StringBuilder sb, int offset, int radix) throws NumberFormatException {
+        return parseLong((CharSequence) sb, offset, radix);
+    }
+
+    public static long parseLong(CharSequence sb, int offset, int radix) throws NumberFormatException {
         if (sb == null) {
             throw new NumberFormatException("null");
         }
@@ -130,10 +138,10 @@ public class StringBuilderUtils {
                     negative = true;
                     limit = Long.MIN_VALUE;
                 } else if (firstChar != '+')
-                    nfe(sb.substring(offset));
+                    nfe(sb.subSequence(offset, sb.length()).toString());
 
                 if (len == 1) // Cannot have lone "+" or "-"
-                    nfe(sb.substring(offset));
+                    nfe(sb.subSequence(offset, sb.length()).toString());
                 i++;
             }
             multmin = limit / radix;
@@ -141,23 +149,116 @@ public class StringBuilderUtils {
                 // Accumulating negatively avoids surprises near MAX_VALUE
                 digit = Character.digit(sb.charAt(i++), radix);
                 if (digit < 0) {
-                    nfe(sb.substring(offset));
+                    nfe(sb.subSequence(offset, sb.length()).toString());
                 }
                 if (result < multmin) {
-                    nfe(sb.substring(offset));
+                    nfe(sb.subSequence(offset, sb.length()).toString());
                 }
                 result *= radix;
                 if (result < limit + digit) {
-                    nfe(sb.substring(offset));
+                    nfe(sb.subSequence(offset, sb.length()).toString());
                 }
                 result -= digit;
             }
         } else {
-            nfe(sb.substring(offset));
+            nfe(sb.subSequence(offset, sb.length()).toString());
         }
         return negative ? result : -result;
     }
 
+    /**
+     * Parses the decimal in place, rounding correctly the same as Double.parseDouble. Hexadecimal and
+     * surrounding whitespace aren't accepted.
+     */
+    public static double parseDouble(CharSequence cs, int offset, int length) throws NumberFormatException {
+        return Double.longBitsToDouble(DecimalToDouble.parse(cs, offset, length, false));
+    }
+
+    /**
+     * Parses the decimal in place, rounding correctly the same as Float.parseFloat. Hexadecimal and
+     * surrounding whitespace aren't accepted.
+     */
+    public static float parseFloat(CharSequence cs, int offset, int length) throws NumberFormatException {
+        return Float.intBitsToFloat((int) DecimalToDouble.parse(cs, offset, length, true));
+    }
+
+    /**
+     * Parses a plain decimal such as "-12.5" as a long of the given number of decimal places,
+     * 1250 for scale 2. Further places are rounded half up.
+     */
+    public static long parseDecimalAsScaledLong(CharSequence cs, int offset, int length, int scale) throws NumberFormatException {
+        if (scale < 0 || scale > 18) {
+            throw new IllegalArgumentException("Scale out of range [0, 18]: " + scale);
+        }
+
+        long result = 0;
+        boolean negative = false;
+        int i = offset, end = offset + length;
+        long limit = -Long.MAX_VALUE;
+        long multmin = limit / 10;
+        int digits = 0;
+        int places = -1;
+        boolean roundUp = false;
+
+        if (i < end && (cs.charAt(i) == '-' || cs.charAt(i) == '+')) {
+            if (cs.charAt(i) == '-') {
+                negative = true;
+                limit = Long.MIN_VALUE;
+            }
+            i++;
+        }
+        for (; i < end; i++) {
+            char c = cs.charAt(i);
+            if (c == '.' && places < 0) {
+                places = 0;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                nfe(cs, offset, end);
+            }
+            digits++;
+            if (places >= 0 && ++places > scale) {
+                // Only the first place dropped decides the rounding
+                if (places == scale + 1) {
+                    roundUp = c >= '5';
+                }
+                continue;
+            }
+            // Accumulating negatively avoids surprises near MAX_VALUE
+            if (result < multmin) {
+                nfe(cs, offset, end);
+            }
+            result *= 10;
+            if (result < limit + (c - '0')) {
+                nfe(cs, offset, end);
+            }
+            result -= c - '0';
+        }
+        if (digits == 0) {
+            nfe(cs, offset, end);
+        }
+        for (int p = Math.max(places, 0); p < scale; p++) {
+            // Zeroes for the places not given
+            if (result < multmin) {
+                nfe(cs, offset, end);
+            }
+            result *= 10;
+        }
+        if (roundUp) {
+            if (result == limit) {
+                nfe(cs, offset, end);
+            }
+            result--;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Writes chars up to 255 as single bytes and the others as their two raw bytes, which no decoder reads back.
+     *
+     * @deprecated use {@link Utf8#encode(CharSequence, int, java.nio.ByteBuffer)}
+     */
+    @Deprecated
     public static int writeBytes(byte[] dest, StringBuilder value) {
         int arrayPos = 0;
         for (int i=0; i < value.length() && arrayPos < dest.length; i++) {
@@ -176,4 +277,8 @@ public class StringBuilderUtils {
     private static int nfe(String s) {
         throw new NumberFormatException("Illegal integer: " + s);
     }
+
+    private static int nfe(CharSequence cs, int from, int to) {
+        throw new NumberFormatException("Illegal decimal: " + cs.subSequence(from, to));
+    }
 }
@@ -0,0 +1,213 @@
+package co.kuznetsov.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * UTF-8 encoding of any CharSequence into a ByteBuffer and decoding into a StringBuilder, without garbage.
+ * <p>
+ * Both directions are resumable. The encoder stops before a char that doesn't fit and returns where to carry on
+ * once the buffer has been drained. The decoder leaves a sequence cut by the buffer's limit for the next call,
+ * after the buffer is compacted and refilled. ASCII runs are moved 8 bytes at a time.
+ * <p>
+ * Invalid input is replaced the same way String does it: unpaired surrogates are encoded as '?', malformed
+ * sequences decode to U+FFFD.
+ */
+public class Utf8 {
+
+    public final static char REPLACEMENT = '\uFFFD';
+
+    private final static long HIGH_BITS = 0x8080808080808080L;
+
+    private Utf8() {
+    }
+
+    /**
+     * Encodes the chars from the index up to the end of the sequence.
+     *
+     * @return the index of the first char not encoded, the length if all of them were
+     */
+    public static int encode(CharSequence src, int from, ByteBuffer dst) {
+        return encode(src, from, src.length(), dst);
+    }
+
+    /**
+     * Encodes the chars in [from, to) for as long as they fit before the buffer's limit, a surrogate pair
+     * is never split.
+     *
+     * @return the index of the first char not encoded, to if all of them were
+     */
+    public static int encode(CharSequence src, int from, int to, ByteBuffer dst) {
+        int i = from;
+        int p = dst.position();
+        int limit = dst.limit();
+        boolean le = dst.order() == ByteOrder.LITTLE_ENDIAN;
+        while (i < to) {
+            char c = src.charAt(i);
+            if (c < 0x80) {
+                if (i + 8 <= to && p + 8 <= limit) {
+                    // The first char goes to the lowest byte
+                    long w = 0;
+                    int any = 0;
+                    for (int k = 0; k < 8; k++) {
+                        char ck = src.charAt(i + k);
+                        any |= ck;
+                        w |= (long) ck << (k << 3);
+                    }
+                    if (any < 0x80) {
+                        dst.putLong(p, le ? w : Long.reverseBytes(w));
+                        i += 8;
+                        p += 8;
+                        continue;
+                    }
+                }
+                if (p == limit)
+                    break;
+                dst.put(p++, (byte) c);
+                i++;
+            } else if (c < 0x800) {
+                if (limit - p < 2)
+                    break;
+                dst.put(p++, (byte) (0xC0 | c >> 6));
+                dst.put(p++, (byte) (0x80 | c & 0x3F));
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                if (limit - p < 3)
+                    break;
+                dst.put(p++, (byte) (0xE0 | c >> 12));
+                dst.put(p++, (byte) (0x80 | c >> 6 & 0x3F));
+                dst.put(p++, (byte) (0x80 | c & 0x3F));
+                i++;
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(src.charAt(i + 1))) {
+                if (limit - p < 4)
+                    break;
+                int cp = Character.toCodePoint(c, src.charAt(i + 1));
+                dst.put(p++, (byte) (0xF0 | cp >> 18));
+                dst.put(p++, (byte) (0x80 | cp >> 12 & 0x3F));
+                dst.put(p++, (byte) (0x80 | cp >> 6 & 0x3F));
+                dst.put(p++, (byte) (0x80 | cp & 0x3F));
+                i += 2;
+            } else {
+                if (p == limit)
+                    break;
+                dst.put(p++, (byte) '?');
+                i++;
+            }
+        }
+        dst.position(p);
+        return i;
+    }
+
+    /**
+     * Number of bytes the chars in [from, to) take in UTF-8.
+     */
+    public static long encodedLength(CharSequence src, int from, int to) {
+        long n = to - from;
+        for (int i = from; i < to; i++) {
+            char c = src.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    n++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(src.charAt(i + 1))) {
+                    // 4 bytes for the 2 chars
+                    n += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    n += 2;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Decodes all the remaining bytes, a sequence cut short by the limit decodes to U+FFFD.
+     */
+    public static void decode(ByteBuffer src, StringBuilder dst) {
+        decode(src, dst, true);
+    }
+
+    /**
+     * Decodes the remaining bytes, appending the chars. Unless it's the end of input, a sequence cut short
+     * by the limit is left in the buffer, positioned at its first byte.
+     */
+    public static void decode(ByteBuffer src, StringBuilder dst, boolean endOfInput) {
+        int p = src.position();
+        int limit = src.limit();
+        boolean le = src.order() == ByteOrder.LITTLE_ENDIAN;
+        while (p < limit) {
+            int b = src.get(p);
+            if (b >= 0) {
+                if (p + 8 <= limit) {
+                    long w = src.getLong(p);
+                    if ((w & HIGH_BITS) == 0) {
+                        // The first byte in the lowest bits
+                        if (!le)
+                            w = Long.reverseBytes(w);
+                        for (int k = 0; k < 8; k++, w >>>= 8)
+                            dst.append((char) (w & 0x7F));
+                        p += 8;
+                        continue;
+                    }
+                }
+                dst.append((char) b);
+                p++;
+                continue;
+            }
+
+            // Length and the range of the second byte, which excludes overlongs and above U+10FFFF
+            b &= 0xFF;
+            int n;
+            int lo = 0x80;
+            int hi = 0xBF;
+            if (b >= 0xC2 && b <= 0xDF) {
+                n = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                n = 2;
+                if (b == 0xE0)
+                    lo = 0xA0;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                n = 3;
+                if (b == 0xF0)
+                    lo = 0x90;
+                else if (b == 0xF4)
+                    hi = 0x8F;
+            } else {
+                dst.append(REPLACEMENT);
+                p++;
+                continue;
+            }
+            int cp = b & (0x3F >> n);
+            int q = p + 1;
+            boolean valid = true;
+            for (int k = 0; k < n; k++, q++) {
+                if (q == limit) {
+                    if (!endOfInput) {
+                        src.position(p);
+                        return;
+                    }
+                    valid = false;
+                    break;
+                }
+                int c = src.get(q) & 0xFF;
+                if (c < lo || c > hi) {
+                    valid = false;
+                    break;
+                }
+                lo = 0x80;
+                hi = 0xBF;
+                cp = cp << 6 | c & 0x3F;
+            }
+            // An encoded surrogate is replaced whole, as String does
+            if (!valid || Character.isSurrogate((char) cp) && n == 2)
+                dst.append(REPLACEMENT);
+            else if (n == 3)
+                dst.append(Character.highSurrogate(cp)).append(Character.lowSurrogate(cp));
+            else
+                dst.append((char) cp);
+            // An invalid byte starts over as a new sequence
+            p = q;
+        }
+        src.position(p);
+    }
+}
@@ -0,0 +1,11 @@
+package co.kuznetsov.xml;
+
+public class AbstractSymbolDocHandler implements SymbolDocHandler {
+    public void startElement(int id, StringBuilder tag) throws Exception {}
+    public void endElement(int id, StringBuilder tag) throws Exception {}
+    public void startDocument() throws Exception {}
+    public void endDocument() throws Exception {}
+    public void text(StringBuilder str) throws Exception {}
+    public void attributeName(int id, StringBuilder name) {}
+    public void attributeValue(StringBuilder value) {}
+}
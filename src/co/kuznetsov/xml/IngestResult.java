@@ -0,0 +1,71 @@
+package co.kuznetsov.xml;
+
+import java.util.List;
+
+/**
+ * Outcome of a {@link XmlIngester} run: how many documents were parsed, how many failed and the first failures.
+ */
+public final class IngestResult<D> {
+    private final long documents;
+    private final long failed;
+    private final long nanos;
+    private final List<Failure<D>> failures;
+
+    IngestResult(long documents, long failed, long nanos, List<Failure<D>> failures) {
+        this.documents = documents;
+        this.failed = failed;
+        this.nanos = nanos;
+        this.failures = failures;
+    }
+
+    public long getDocuments() {
+        return documents;
+    }
+
+    public long getSucceeded() {
+        return documents - failed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * The first failures, up to the ingester's limit. {@link #getFailed()} counts all of them.
+     */
+    public List<Failure<D>> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "IngestResult{documents=" + documents + ", failed=" + failed + ", ms=" + nanos / 1000000 + "}";
+    }
+
+    public static final class Failure<D> {
+        private final D document;
+        private final Throwable error;
+
+        Failure(D document, Throwable error) {
+            this.document = document;
+            this.error = error;
+        }
+
+        public D getDocument() {
+            return document;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return document + ": " + error;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package co.kuznetsov.xml;
+
+/**
+ * Records a "co.kuznetsov.xml.Parse" JFR event per parse. Costs next to nothing while the event isn't enabled
+ * in the running recording.
+ */
+public class JfrParserMonitor implements ParserMonitor {
+
+    public void parsed(ParseStats stats) {
+        ParseEvent e = new ParseEvent();
+        if (!e.isEnabled())
+            return;
+        e.bytes = stats.getBytes();
+        e.chars = stats.getChars();
+        e.startElements = stats.getStartElements();
+        e.endElements = stats.getEndElements();
+        e.texts = stats.getTexts();
+        e.attributes = stats.getAttributes();
+        e.entities = stats.getEntities();
+        e.maxStackDepth = stats.getMaxStackDepth();
+        e.maxTextLength = stats.getMaxTextLength();
+        e.handlerTime = stats.getHandlerNanos();
+        e.scanTime = stats.getScanNanos();
+        e.completed = stats.isCompleted();
+        e.commit();
+    }
+}
@@ -0,0 +1,471 @@
+package co.kuznetsov.xml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Parses UTF-8 documents made of one root element wrapping lots of sibling records,
+ * e.g. <code>&lt;feed&gt;&lt;item&gt;...&lt;/item&gt;&lt;item&gt;...&lt;/item&gt;...&lt;/feed&gt;</code>, on several threads.
+ * <p>
+ * The input is cut into chunks at record start tags. Cut points are found by a light sequential scan
+ * which only keeps track of comments, CDATA sections and processing instructions, so a record tag inside
+ * them is never taken for a boundary. Chunks are then parsed on a {@link ForkJoinPool} in
+ * {@link QDParser#setFragmentMode(boolean) fragment mode}: every worker owns one QDParser and one handler
+ * made by the given supplier and reuses them for all the chunks it picks up. Handlers see startDocument
+ * and endDocument around each chunk, the root element itself is never reported.
+ * <p>
+ * After a chunk is parsed the results function takes the chunk's result out of the handler and the result is
+ * passed to the sink, either in document order or as soon as the chunk is done. The sink is never called concurrently.
+ * <p>
+ * Record elements must not be nested into each other.
+ */
+public class ParallelRecordParser {
+    public enum Delivery {
+        ORDERED, UNORDERED
+    }
+
+    private final static int MIN_CHUNK = 1 << 20;
+    private final static long MAX_CHUNK = 1L << 28;
+
+    private final static byte[] COMMENT = "<!--".getBytes();
+    private final static byte[] COMMENT_END = "-->".getBytes();
+    private final static byte[] CDATA = "<![CDATA[".getBytes();
+    private final static byte[] CDATA_END = "]]>".getBytes();
+    private final static byte[] PI_END = "?>".getBytes();
+
+    private final static Object NULL = new Object();
+
+    private final ForkJoinPool pool;
+    private final byte[] record;
+    private final int maxStateDepth;
+
+    public ParallelRecordParser(String recordName, int maxStateDepth) {
+        this(ForkJoinPool.commonPool(), recordName, maxStateDepth);
+    }
+
+    public ParallelRecordParser(ForkJoinPool pool, String recordName, int maxStateDepth) {
+        this.pool = pool;
+        this.record = ("<" + recordName).getBytes(StandardCharsets.UTF_8);
+        this.maxStateDepth = maxStateDepth;
+    }
+
+    /**
+     * Parses the buffer from its position up to its limit. The buffer itself is left untouched.
+     */
+    public <H extends DocHandler, R> void parse(ByteBuffer utf8, Supplier<? extends H> handlers,
+                                                Function<? super H, ? extends R> results,
+                                                Consumer<? super R> sink, Delivery delivery) throws Exception {
+        parse(new Input(utf8), handlers, results, sink, delivery);
+    }
+
+    /**
+     * Parses the file from the channel's current position to its end. Chunks are mapped into memory
+     * separately, so files bigger than 2GB are fine.
+     */
+    public <H extends DocHandler, R> void parse(FileChannel channel, Supplier<? extends H> handlers,
+                                                Function<? super H, ? extends R> results,
+                                                Consumer<? super R> sink, Delivery delivery) throws Exception {
+        parse(new Input(channel), handlers, results, sink, delivery);
+    }
+
+    private <H extends DocHandler, R> void parse(Input in, Supplier<? extends H> handlers,
+                                                 Function<? super H, ? extends R> results,
+                                                 Consumer<? super R> sink, Delivery delivery) throws Exception {
+        long[] splits = split(in);
+        int chunks = splits.length - 1;
+        if (chunks == 0) {
+            return;
+        }
+        Job<H, R> job = new Job<H, R>(in, splits, handlers, results, sink, delivery);
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[chunks];
+        for (int i = 0; i < chunks; i++) {
+            final int chunk = i;
+            tasks[i] = pool.submit(new Runnable() {
+                public void run() {
+                    job.run(chunk);
+                }
+            });
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        if (job.failure != null) {
+            throw job.failure;
+        }
+    }
+
+    /**
+     * @return offsets of record boundaries: the first record start, chunk cut points and the end of the last record
+     */
+    private long[] split(Input in) throws Exception {
+        long bodyStart = bodyStart(in);
+        if (bodyStart >= in.end) {
+            return new long[0];
+        }
+        long first = findRecord(in, bodyStart);
+        if (first >= in.end) {
+            return new long[0];
+        }
+
+        long size = in.end - first;
+        int parallelism = pool.getParallelism();
+        long n = Math.max(1, Math.min(parallelism * 4L, size / MIN_CHUNK));
+        n = Math.max(n, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+        long chunk = size / n;
+
+        long[] splits = new long[(int) n + 1];
+        int count = 0;
+        splits[count++] = first;
+        long pos = first + 1;
+        for (int k = 1; k < n; k++) {
+            long target = first + k * chunk;
+            if (target <= pos) {
+                continue;
+            }
+            pos = findRecord(in, advance(in, pos, target));
+            if (pos >= in.end) {
+                break;
+            }
+            splits[count++] = pos;
+            pos++;
+        }
+        splits[count++] = in.end;
+        return Arrays.copyOf(splits, count);
+    }
+
+    // Finds the root start tag, limits the input to the root's content and returns where the content starts
+    private long bodyStart(Input in) throws Exception {
+        long pos = in.start;
+        while (true) {
+            long lt = in.indexOf(pos, in.end, '<', '<');
+            if (lt + 1 >= in.end) {
+                throw new Exception("No root element found");
+            }
+            int next = in.get(lt + 1);
+            if (next == '!' || next == '?') {
+                pos = skipMarkup(in, lt);
+                continue;
+            }
+            long nameEnd = lt + 1;
+            while (nameEnd < in.end && !isDelimiter(in.get(nameEnd))) {
+                nameEnd++;
+            }
+            long gt = nameEnd;
+            int quote = 0;
+            for (; gt < in.end; gt++) {
+                int b = in.get(gt);
+                if (quote != 0) {
+                    if (b == quote)
+                        quote = 0;
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                } else if (b == '>') {
+                    break;
+                }
+            }
+            if (gt >= in.end || in.get(gt - 1) == '/') {
+                return in.end;
+            }
+            // </root
+            byte[] close = new byte[(int) (nameEnd - lt) + 1];
+            close[0] = '<';
+            close[1] = '/';
+            for (int i = 2; i < close.length; i++) {
+                close[i] = (byte) in.get(lt + i - 1);
+            }
+            if (Arrays.equals(close, 2, close.length, record, 1, record.length)) {
+                throw new IllegalArgumentException("Record element can't be the root one");
+            }
+            in.end = lastIndexOf(in, gt + 1, close);
+            return gt + 1;
+        }
+    }
+
+    // Moves towards the target jumping over comments, CDATA sections and PIs, ends past the target when it falls into one
+    private long advance(Input in, long pos, long target) throws IOException {
+        while (true) {
+            long limit = Math.min(target + 1, in.end);
+            long i = in.indexOf(pos, limit, '!', '?');
+            if (i < limit && i > in.start && in.get(i - 1) == '<') {
+                pos = skipMarkup(in, i - 1);
+                if (pos >= target)
+                    return pos;
+            } else if (i >= target) {
+                return Math.min(target, in.end);
+            } else {
+                pos = i + 1;
+            }
+        }
+    }
+
+    // Finds the first record start tag at or after pos, which must be outside of any markup
+    private long findRecord(Input in, long pos) throws IOException {
+        while (true) {
+            long lt = in.indexOf(pos, in.end, '<', '<');
+            if (lt + 1 >= in.end) {
+                return in.end;
+            }
+            int next = in.get(lt + 1);
+            if (next == '!' || next == '?') {
+                pos = skipMarkup(in, lt);
+            } else if (lt + record.length < in.end && in.matches(lt, record) && isDelimiter(in.get(lt + record.length))) {
+                return lt;
+            } else {
+                pos = lt + 1;
+            }
+        }
+    }
+
+    // Returns the position right after the comment, CDATA section, PI or declaration starting at lt
+    private long skipMarkup(Input in, long lt) throws IOException {
+        if (in.get(lt + 1) == '?') {
+            return skipPast(in, lt + 2, PI_END);
+        } else if (in.matches(lt, COMMENT)) {
+            return skipPast(in, lt + COMMENT.length, COMMENT_END);
+        } else if (in.matches(lt, CDATA)) {
+            return skipPast(in, lt + CDATA.length, CDATA_END);
+        }
+        // <!DOCTYPE ... [ ... ]>
+        int brackets = 0;
+        for (long i = lt + 2; i < in.end; i++) {
+            int b = in.get(i);
+            if (b == '[') {
+                brackets++;
+            } else if (b == ']') {
+                brackets--;
+            } else if (b == '>' && brackets <= 0) {
+                return i + 1;
+            }
+        }
+        return in.end;
+    }
+
+    private static long skipPast(Input in, long from, byte[] terminator) throws IOException {
+        int last = terminator.length - 1;
+        long i = from + last;
+        while (true) {
+            i = in.indexOf(i, in.end, terminator[last], terminator[last]);
+            if (i >= in.end) {
+                return in.end;
+            }
+            if (in.matches(i - last, terminator)) {
+                return i + 1;
+            }
+            i++;
+        }
+    }
+
+    private static long lastIndexOf(Input in, long from, byte[] s) throws IOException {
+        for (long i = in.end - s.length; i >= from; i--) {
+            if (in.get(i) == '<' && in.matches(i, s) && (i + s.length == in.end || isDelimiter(in.get(i + s.length)))) {
+                return i;
+            }
+        }
+        return in.end;
+    }
+
+    private static boolean isDelimiter(int b) {
+        return b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private class Job<H extends DocHandler, R> {
+        private final Input in;
+        private final long[] splits;
+        private final Supplier<? extends H> handlers;
+        private final Function<? super H, ? extends R> results;
+        private final Consumer<? super R> sink;
+        private final boolean ordered;
+
+        private final ConcurrentLinkedQueue<Worker<H>> workers = new ConcurrentLinkedQueue<Worker<H>>();
+        private final Object[] done;
+        private int next;
+        private volatile Exception failure;
+
+        Job(Input in, long[] splits, Supplier<? extends H> handlers, Function<? super H, ? extends R> results,
+            Consumer<? super R> sink, Delivery delivery) {
+            this.in = in;
+            this.splits = splits;
+            this.handlers = handlers;
+            this.results = results;
+            this.sink = sink;
+            this.ordered = delivery == Delivery.ORDERED;
+            this.done = ordered ? new Object[splits.length - 1] : null;
+        }
+
+        void run(int chunk) {
+            if (failure != null) {
+                return;
+            }
+            Worker<H> worker = workers.poll();
+            if (worker == null) {
+                worker = new Worker<H>(new QDParser(maxStateDepth), handlers.get());
+                worker.parser.setFragmentMode(true);
+            }
+            try {
+                worker.parser.parse(worker.handler, in.chunk(splits[chunk], splits[chunk + 1]));
+                deliver(chunk, results.apply(worker.handler));
+            } catch (Exception e) {
+                fail(new Exception("Failed to parse records at bytes " + splits[chunk] + ".." + splits[chunk + 1] + ": " + e.getMessage(), e));
+            } catch (Error e) {
+                fail(new Exception(e));
+                throw e;
+            } finally {
+                workers.offer(worker);
+            }
+        }
+
+        private synchronized void deliver(int chunk, R result) {
+            if (failure != null) {
+                return;
+            }
+            if (!ordered) {
+                sink.accept(result);
+                return;
+            }
+            done[chunk] = result == null ? NULL : result;
+            while (next < done.length && done[next] != null) {
+                Object r = done[next];
+                done[next++] = null;
+                @SuppressWarnings("unchecked")
+                R value = r == NULL ? null : (R) r;
+                sink.accept(value);
+            }
+        }
+
+        private synchronized void fail(Exception e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    private static class Worker<H> {
+        final QDParser parser;
+        final H handler;
+
+        Worker(QDParser parser, H handler) {
+            this.parser = parser;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * Random access to the input. A buffer is accessed directly, a file is mapped window by window.
+     */
+    private static class Input {
+        private final static long WINDOW = 1L << 30;
+        private final static long ONES = 0x0101010101010101L;
+        private final static long LOWS = 0x7F7F7F7F7F7F7F7FL;
+
+        private final ByteBuffer buffer;
+        private final FileChannel channel;
+        final long start;
+        long end;
+
+        private ByteBuffer window;
+        private long windowStart;
+        private long windowEnd;
+
+        Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.channel = null;
+            this.start = buffer.position();
+            this.end = buffer.limit();
+            this.window = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.windowStart = 0;
+            this.windowEnd = buffer.limit();
+        }
+
+        Input(FileChannel channel) throws IOException {
+            this.buffer = null;
+            this.channel = channel;
+            this.start = channel.position();
+            this.end = channel.size();
+            this.windowStart = this.windowEnd = start;
+        }
+
+        ByteBuffer chunk(long from, long to) throws IOException {
+            if (buffer != null) {
+                ByteBuffer chunk = buffer.duplicate();
+                chunk.limit((int) to).position((int) from);
+                return chunk;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        }
+
+        int get(long i) throws IOException {
+            if (i < windowStart || i >= windowEnd) {
+                map(i);
+            }
+            return window.get((int) (i - windowStart)) & 0xFF;
+        }
+
+        boolean matches(long i, byte[] s) throws IOException {
+            if (i < start || i + s.length > end) {
+                return false;
+            }
+            for (int k = 0; k < s.length; k++) {
+                if (get(i + k) != (s[k] & 0xFF)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Index of the first of the two (ASCII) bytes in [from, limit), or limit
+        long indexOf(long from, long limit, int b1, int b2) throws IOException {
+            long m1 = ONES * b1, m2 = ONES * b2;
+            long i = from;
+            while (i < limit) {
+                if (i < windowStart || i >= windowEnd) {
+                    map(i);
+                }
+                int p = (int) (i - windowStart);
+                int lim = (int) (Math.min(limit, windowEnd) - windowStart);
+                while (lim - p >= 8) {
+                    long w = window.getLong(p);
+                    long hit = zeros(w ^ m1) | zeros(w ^ m2);
+                    if (hit != 0) {
+                        return windowStart + p + (Long.numberOfTrailingZeros(hit) >>> 3);
+                    }
+                    p += 8;
+                }
+                while (p < lim) {
+                    int b = window.get(p);
+                    if (b == b1 || b == b2) {
+                        return windowStart + p;
+                    }
+                    p++;
+                }
+                i = windowStart + p;
+            }
+            return limit;
+        }
+
+        private void map(long i) throws IOException {
+            if (channel == null) {
+                throw new IndexOutOfBoundsException("Offset " + i);
+            }
+            // Leave a bit of room behind for looking back at a few bytes
+            long from = Math.max(start, i - 64);
+            long to = Math.min(channel.size(), from + WINDOW);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from).order(ByteOrder.LITTLE_ENDIAN);
+            windowStart = from;
+            windowEnd = to;
+        }
+
+        private static long zeros(long w) {
+            return ~(((w & LOWS) + LOWS) | w | LOWS);
+        }
+    }
+}
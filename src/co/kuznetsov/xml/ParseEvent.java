@@ -0,0 +1,58 @@
+package co.kuznetsov.xml;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event recorded for every parse by {@link JfrParserMonitor}.
+ */
+@Name("co.kuznetsov.xml.Parse")
+@Label("XML Parse")
+@Category("XML")
+@Description("Document parsed by QDParser")
+@StackTrace(false)
+class ParseEvent extends jdk.jfr.Event {
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Characters")
+    long chars;
+
+    @Label("Start Elements")
+    long startElements;
+
+    @Label("End Elements")
+    long endElements;
+
+    @Label("Texts")
+    long texts;
+
+    @Label("Attributes")
+    long attributes;
+
+    @Label("Entities")
+    long entities;
+
+    @Label("Max Stack Depth")
+    int maxStackDepth;
+
+    @Label("Max Text Length")
+    int maxTextLength;
+
+    @Label("Handler Time")
+    @Timespan
+    long handlerTime;
+
+    @Label("Scan Time")
+    @Timespan
+    long scanTime;
+
+    @Label("Completed")
+    boolean completed;
+}
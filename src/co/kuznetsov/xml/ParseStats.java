@@ -0,0 +1,139 @@
+package co.kuznetsov.xml;
+
+/**
+ * Figures of a single parse, collected by an instrumented {@link QDParser} and handed to its {@link ParserMonitor}.
+ * The instance is reused by the parser for the next parse.
+ */
+public final class ParseStats {
+    long bytes;
+    long chars;
+    long startElements;
+    long endElements;
+    long texts;
+    long attributes;
+    long entities;
+    int maxStackDepth;
+    int maxTextLength;
+    long handlerNanos;
+    long parseNanos;
+    boolean completed;
+
+    void reset() {
+        bytes = chars = 0;
+        startElements = endElements = texts = attributes = entities = 0;
+        maxStackDepth = maxTextLength = 0;
+        handlerNanos = parseNanos = 0;
+        completed = false;
+    }
+
+    // Counting helpers return the time a callback starts at
+
+    long event() {
+        return System.nanoTime();
+    }
+
+    long startElement(int stackDepth) {
+        startElements++;
+        maxStackDepth = Math.max(maxStackDepth, stackDepth);
+        return System.nanoTime();
+    }
+
+    long endElement() {
+        endElements++;
+        return System.nanoTime();
+    }
+
+    long text(int length) {
+        texts++;
+        maxTextLength = Math.max(maxTextLength, length);
+        return System.nanoTime();
+    }
+
+    long attributeName() {
+        attributes++;
+        return System.nanoTime();
+    }
+
+    long attributeValue(int length) {
+        maxTextLength = Math.max(maxTextLength, length);
+        return System.nanoTime();
+    }
+
+    void entity(int stackDepth) {
+        entities++;
+        maxStackDepth = Math.max(maxStackDepth, stackDepth);
+    }
+
+    void handled(long start) {
+        handlerNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * UTF-8 bytes consumed, zero for Reader input.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Characters run through the parser. Inside skipped elements UTF-8 input is counted in bytes.
+     */
+    public long getChars() {
+        return chars;
+    }
+
+    public long getStartElements() {
+        return startElements;
+    }
+
+    public long getEndElements() {
+        return endElements;
+    }
+
+    public long getTexts() {
+        return texts;
+    }
+
+    public long getAttributes() {
+        return attributes;
+    }
+
+    public long getEntities() {
+        return entities;
+    }
+
+    /**
+     * Highest depth the parser's state stack reached, to size maxStateDepth by.
+     */
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    /**
+     * Longest text or attribute value reported.
+     */
+    public int getMaxTextLength() {
+        return maxTextLength;
+    }
+
+    /**
+     * Time spent in the handler's callbacks.
+     */
+    public long getHandlerNanos() {
+        return handlerNanos;
+    }
+
+    /**
+     * Time spent in the parser itself, callbacks excluded.
+     */
+    public long getScanNanos() {
+        return parseNanos - handlerNanos;
+    }
+
+    /**
+     * Whether the document was parsed up to its end, rather than failed or abandoned.
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+}
@@ -0,0 +1,95 @@
+package co.kuznetsov.xml;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cumulative counters over all the parses it monitors, can be shared by parsers running in different threads.
+ */
+public class ParserCounters implements ParserMonitor {
+    private final LongAdder parses = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder chars = new LongAdder();
+    private final LongAdder startElements = new LongAdder();
+    private final LongAdder endElements = new LongAdder();
+    private final LongAdder texts = new LongAdder();
+    private final LongAdder attributes = new LongAdder();
+    private final LongAdder entities = new LongAdder();
+    private final LongAdder handlerNanos = new LongAdder();
+    private final LongAdder scanNanos = new LongAdder();
+    private final LongAccumulator maxStackDepth = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxTextLength = new LongAccumulator(Math::max, 0);
+
+    public void parsed(ParseStats stats) {
+        parses.increment();
+        if (!stats.isCompleted())
+            failures.increment();
+        bytes.add(stats.getBytes());
+        chars.add(stats.getChars());
+        startElements.add(stats.getStartElements());
+        endElements.add(stats.getEndElements());
+        texts.add(stats.getTexts());
+        attributes.add(stats.getAttributes());
+        entities.add(stats.getEntities());
+        handlerNanos.add(stats.getHandlerNanos());
+        scanNanos.add(stats.getScanNanos());
+        maxStackDepth.accumulate(stats.getMaxStackDepth());
+        maxTextLength.accumulate(stats.getMaxTextLength());
+    }
+
+    public long getParses() {
+        return parses.sum();
+    }
+
+    /**
+     * Parses that failed or were abandoned before the end of the document.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getChars() {
+        return chars.sum();
+    }
+
+    public long getStartElements() {
+        return startElements.sum();
+    }
+
+    public long getEndElements() {
+        return endElements.sum();
+    }
+
+    public long getTexts() {
+        return texts.sum();
+    }
+
+    public long getAttributes() {
+        return attributes.sum();
+    }
+
+    public long getEntities() {
+        return entities.sum();
+    }
+
+    public long getHandlerNanos() {
+        return handlerNanos.sum();
+    }
+
+    public long getScanNanos() {
+        return scanNanos.sum();
+    }
+
+    public long getMaxStackDepth() {
+        return maxStackDepth.get();
+    }
+
+    public long getMaxTextLength() {
+        return maxTextLength.get();
+    }
+}
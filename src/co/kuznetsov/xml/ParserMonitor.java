@@ -0,0 +1,21 @@
+package co.kuznetsov.xml;
+
+/**
+ * Receives the figures of every parse of an instrumented {@link QDParser}, once the parse is over.
+ * Called on the parsing thread, the stats are valid only during the call.
+ * <p>
+ * A parser created without a monitor doesn't collect anything.
+ */
+public interface ParserMonitor {
+    void parsed(ParseStats stats);
+
+    /**
+     * Monitor reporting to both monitors.
+     */
+    static ParserMonitor of(ParserMonitor first, ParserMonitor second) {
+        return stats -> {
+            first.parsed(stats);
+            second.parsed(stats);
+        };
+    }
+}
@@ -0,0 +1,278 @@
+package co.kuznetsov.xml;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming selector for a small XPath subset: child (<code>/a</code>) and descendant
+ * (<code>//a</code>) steps, <code>*</code> wildcards, and a trailing attribute step
+ * (<code>/feed/item@id</code> or <code>/feed/item/@id</code>).
+ * <p>
+ * For element paths the element's own text is reported once the element ends, text of nested
+ * elements is not included. Attribute paths report the attribute value.
+ * <p>
+ * Paths are compiled into a bit-parallel automaton (at most 64 element steps and 64 paths in total).
+ * Whenever no path can match anything inside an element, the selector tells the parser
+ * to skip the element, so uninteresting subtrees are only scanned for nesting depth.
+ * <p>
+ * Like {@link QDParser} instances are not thread safe, since matching state is pre-created to avoid garbage.
+ */
+public class PathSelector {
+    private final String[] paths;
+    private final SymbolTable symbols;
+
+    // Per symbol id: element steps with that name
+    private final long[] nameSteps;
+    private final long wildcardSteps;
+    private final long descendantSteps;
+    private final long lastSteps;
+    private final long firstSteps;
+
+    // Per last element step: the path it completes, the attribute to report (or UNKNOWN for text)
+    private final int[] stepPath;
+    private final int[] stepAttribute;
+
+    private final Matcher matcher = new Matcher();
+
+    public PathSelector(String... paths) {
+        if (paths.length == 0 || paths.length > 64) {
+            throw new IllegalArgumentException("1 to 64 paths expected");
+        }
+        this.paths = paths.clone();
+        this.symbols = new SymbolTable();
+
+        List<String> names = new ArrayList<String>();
+        List<Boolean> descendant = new ArrayList<Boolean>();
+        long first = 0, last = 0;
+        int[] path = new int[64];
+        int[] attribute = new int[64];
+        for (int p = 0; p < paths.length; p++) {
+            int start = names.size();
+            int attr = parse(paths[p], names, descendant);
+            if (names.size() > 64) {
+                throw new IllegalArgumentException("Too many steps, at most 64 are supported");
+            }
+            first |= 1L << start;
+            last |= 1L << (names.size() - 1);
+            path[names.size() - 1] = p;
+            attribute[names.size() - 1] = attr;
+        }
+
+        long wildcard = 0, desc = 0;
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equals("*"))
+                wildcard |= 1L << i;
+            else
+                symbols.add(names.get(i));
+            if (descendant.get(i))
+                desc |= 1L << i;
+        }
+        this.nameSteps = new long[symbols.size()];
+        for (int i = 0; i < names.size(); i++) {
+            if (!names.get(i).equals("*"))
+                nameSteps[symbols.lookup(names.get(i))] |= 1L << i;
+        }
+        this.wildcardSteps = wildcard;
+        this.descendantSteps = desc;
+        this.firstSteps = first;
+        this.lastSteps = last;
+        this.stepPath = path;
+        this.stepAttribute = attribute;
+    }
+
+    // Appends element steps, registers and returns attribute symbol (or UNKNOWN)
+    private int parse(String path, List<String> names, List<Boolean> descendant) {
+        int i = 0, n = path.length();
+        int attr = SymbolTable.UNKNOWN;
+        int steps = 0;
+        while (i < n) {
+            if (path.charAt(i) == '@' && steps > 0) {
+                attr = attribute(path, i + 1);
+                break;
+            }
+            if (path.charAt(i) != '/') {
+                throw new IllegalArgumentException("'/' expected at " + i + ": " + path);
+            }
+            boolean desc = path.startsWith("//", i);
+            i += desc ? 2 : 1;
+            if (i < n && path.charAt(i) == '@' && steps > 0 && !desc) {
+                attr = attribute(path, i + 1);
+                break;
+            }
+            int end = i;
+            while (end < n && path.charAt(end) != '/' && path.charAt(end) != '@') {
+                end++;
+            }
+            if (end == i) {
+                throw new IllegalArgumentException("Empty step at " + i + ": " + path);
+            }
+            names.add(path.substring(i, end));
+            descendant.add(desc);
+            steps++;
+            i = end;
+        }
+        if (steps == 0) {
+            throw new IllegalArgumentException("No element steps: " + path);
+        }
+        return attr;
+    }
+
+    private int attribute(String path, int from) {
+        String name = path.substring(from);
+        if (name.isEmpty() || name.indexOf('/') >= 0 || name.indexOf('@') >= 0) {
+            throw new IllegalArgumentException("Attribute step must be the last one: " + path);
+        }
+        return symbols.add(name);
+    }
+
+    public int size() {
+        return paths.length;
+    }
+
+    public String path(int selector) {
+        return paths[selector];
+    }
+
+    public void parse(QDParser parser, SelectionHandler handler, Reader reader) throws Exception {
+        matcher.start(parser, handler);
+        try {
+            parser.parse(matcher, symbols, reader);
+        } finally {
+            matcher.stop();
+        }
+    }
+
+    public void parse(QDParser parser, SelectionHandler handler, ByteBuffer utf8) throws Exception {
+        matcher.start(parser, handler);
+        try {
+            parser.parse(matcher, symbols, utf8);
+        } finally {
+            matcher.stop();
+        }
+    }
+
+    public void parse(QDParser parser, SelectionHandler handler, FileChannel channel) throws Exception {
+        matcher.start(parser, handler);
+        try {
+            parser.parse(matcher, symbols, channel);
+        } finally {
+            matcher.stop();
+        }
+    }
+
+    private class Matcher implements SymbolDocHandler {
+        private QDParser parser;
+        private SelectionHandler handler;
+
+        // Per open element: active steps inside it, steps it completed with its text, start of its text
+        private long[] active = new long[16];
+        private long[] textSteps = new long[16];
+        private int[] textStart = new int[16];
+        private int depth;
+
+        private long attrSteps;
+        private long valueSteps;
+
+        private final StringBuilder text = new StringBuilder();
+        private final StringBuilder value = new StringBuilder();
+
+        void start(QDParser parser, SelectionHandler handler) {
+            this.parser = parser;
+            this.handler = handler;
+        }
+
+        void stop() {
+            this.parser = null;
+            this.handler = null;
+        }
+
+        public void startDocument() {
+            depth = 0;
+            active[0] = firstSteps;
+            textSteps[0] = 0;
+            attrSteps = 0;
+            valueSteps = 0;
+            text.setLength(0);
+        }
+
+        public void endDocument() {
+        }
+
+        public void startElement(int id, StringBuilder tag) {
+            long parent = active[depth];
+            long matched = parent & (wildcardSteps | (id >= 0 ? nameSteps[id] : 0));
+            long inside = (parent & descendantSteps) | ((matched & ~lastSteps) << 1);
+            long completed = matched & lastSteps;
+
+            long withText = 0, withAttr = 0;
+            for (long m = completed; m != 0; m &= m - 1) {
+                int step = Long.numberOfTrailingZeros(m);
+                if (stepAttribute[step] == SymbolTable.UNKNOWN)
+                    withText |= 1L << step;
+                else
+                    withAttr |= 1L << step;
+            }
+
+            if (++depth == active.length) {
+                active = Arrays.copyOf(active, depth * 2);
+                textSteps = Arrays.copyOf(textSteps, depth * 2);
+                textStart = Arrays.copyOf(textStart, depth * 2);
+            }
+            active[depth] = inside;
+            textSteps[depth] = withText;
+            textStart[depth] = text.length();
+            attrSteps = withAttr;
+            valueSteps = 0;
+
+            if (inside == 0 && withText == 0) {
+                if (withAttr == 0)
+                    parser.skipElement();
+                else
+                    parser.skipContent();
+            }
+        }
+
+        public void attributeName(int id, StringBuilder name) {
+            valueSteps = 0;
+            if (id < 0)
+                return;
+            for (long m = attrSteps; m != 0; m &= m - 1) {
+                int step = Long.numberOfTrailingZeros(m);
+                if (stepAttribute[step] == id)
+                    valueSteps |= 1L << step;
+            }
+        }
+
+        public void attributeValue(StringBuilder value) {
+            for (long m = valueSteps; m != 0; m &= m - 1) {
+                handler.selected(stepPath[Long.numberOfTrailingZeros(m)], value);
+            }
+            valueSteps = 0;
+        }
+
+        public void text(StringBuilder str) {
+            attrSteps = 0;
+            if (textSteps[depth] != 0)
+                text.append(str);
+        }
+
+        public void endElement(int id, StringBuilder tag) {
+            attrSteps = 0;
+            long steps = textSteps[depth];
+            if (steps != 0) {
+                int start = textStart[depth];
+                value.setLength(0);
+                value.append(text, start, text.length());
+                text.setLength(start);
+                for (long m = steps; m != 0; m &= m - 1) {
+                    handler.selected(stepPath[Long.numberOfTrailingZeros(m)], value);
+                }
+            }
+            depth--;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package co.kuznetsov.xml;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Pull style access to {@link QDParser}: the caller asks for the next event rather than being called back,
+ * so a parsing loop is plain code with no handler state machine and no virtual call per event.
+ * <pre>
+ * cursor.open(utf8);
+ * while (cursor.next() != QDCursor.END_DOCUMENT) {
+ *     switch (cursor.eventType()) { ... }
+ * }
+ * </pre>
+ * Names and values are copied by the cursor into its own buffers, the parser clears its buffers before it
+ * suspends. The cursor's buffers are reused by the next event, so anything kept has to be copied again.
+ * An attribute is reported as a single event carrying both the name and the value.
+ * <p>
+ * Like the parser, a cursor isn't thread safe, but can be reused for any number of documents.
+ */
+public final class QDCursor {
+
+    public static final int
+            START_DOCUMENT = 1,
+            END_DOCUMENT = 2,
+            START_ELEMENT = 3,
+            END_ELEMENT = 4,
+            ATTRIBUTE = 5,
+            TEXT = 6;
+
+    // Attribute name arrives before the value and isn't an event on its own
+    static final int ATTRIBUTE_NAME = 0;
+
+    private final QDParser parser;
+    private final StringBuilder name = new StringBuilder();
+    private final StringBuilder attributeName = new StringBuilder();
+    private final StringBuilder value = new StringBuilder();
+    private final SymbolTable symbols;
+    private int event;
+
+    public QDCursor(QDParser parser) {
+        this(parser, null);
+    }
+
+    public QDCursor(QDParser parser, SymbolTable symbols) {
+        this.parser = parser;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Starts reading a document, the current event is then START_DOCUMENT.
+     * A document that wasn't read up to its end is abandoned.
+     */
+    public void open(Reader reader) throws Exception {
+        reset();
+        parser.open(this, reader);
+    }
+
+    /**
+     * Starts reading UTF-8 encoded document from the buffer's position up to its limit.
+     */
+    public void open(ByteBuffer utf8) throws Exception {
+        reset();
+        parser.open(this, utf8);
+    }
+
+    /**
+     * Starts reading UTF-8 encoded document from the channel's current position. Once the document
+     * is over the channel is positioned past it.
+     */
+    public void open(FileChannel channel) throws Exception {
+        reset();
+        parser.open(this, channel);
+    }
+
+    /**
+     * Advances to the next event and returns its type.
+     */
+    public int next() throws Exception {
+        if (event == END_DOCUMENT || event == 0)
+            throw new IllegalStateException("No document to read");
+        boolean ok = false;
+        try {
+            parser.pull();
+            ok = true;
+        } finally {
+            if (!ok)
+                event = 0;
+        }
+        return event;
+    }
+
+    public boolean hasNext() {
+        return event != END_DOCUMENT && event != 0;
+    }
+
+    public int eventType() {
+        return event;
+    }
+
+    /**
+     * Name of the element for START_ELEMENT and END_ELEMENT.
+     */
+    public CharSequence name() {
+        return name;
+    }
+
+    public CharSequence text() {
+        return value;
+    }
+
+    public CharSequence attributeName() {
+        return attributeName;
+    }
+
+    public CharSequence attributeValue() {
+        return value;
+    }
+
+    /**
+     * Id of the element name in the cursor's {@link SymbolTable}, or {@link SymbolTable#UNKNOWN},
+     * always for a cursor without one.
+     */
+    public int nameId() {
+        return symbols != null ? symbols.lookup(name) : SymbolTable.UNKNOWN;
+    }
+
+    public int attributeNameId() {
+        return symbols != null ? symbols.lookup(attributeName) : SymbolTable.UNKNOWN;
+    }
+
+    /**
+     * Skips the rest of the current element, the next event is its END_ELEMENT.
+     * Can be called at START_ELEMENT or ATTRIBUTE.
+     */
+    public void skipElement() {
+        if (event != START_ELEMENT && event != ATTRIBUTE)
+            throw new IllegalStateException("Not at a start tag");
+        parser.skipPulled(name);
+    }
+
+    /**
+     * Abandons the current document.
+     */
+    public void close() {
+        reset();
+    }
+
+    private void reset() {
+        if (event != END_DOCUMENT && event != 0)
+            parser.closeInput();
+        event = 0;
+        name.setLength(0);
+        attributeName.setLength(0);
+        value.setLength(0);
+    }
+
+    // Called by the parser, returns whether the parser has to stop here
+    boolean event(int type, StringBuilder buf) {
+        switch (type) {
+            case START_ELEMENT:
+            case END_ELEMENT:
+                name.setLength(0);
+                name.append(buf);
+                break;
+            case ATTRIBUTE_NAME:
+                attributeName.setLength(0);
+                attributeName.append(buf);
+                return false;
+            case ATTRIBUTE:
+            case TEXT:
+                value.setLength(0);
+                value.append(buf);
+                break;
+        }
+        event = type;
+        return true;
+    }
+}
@@ -1,8 +1,12 @@
 package co.kuznetsov.xml;
 
-import co.kuznetsov.util.SimpleStack;
+import co.kuznetsov.util.IntStack;
 
+import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 import static co.kuznetsov.util.StringBuilderUtils.*;
 
@@ -18,10 +22,33 @@ import static co.kuznetsov.util.StringBuilderUtils.*;
  * StringBuilder instances.
  * <p/>
  * It also tries the best to avoid garbage creation
+ * <p>
+ * Besides a {@link Reader} the parser accepts UTF-8 encoded input as a {@link ByteBuffer}
+ * (heap, direct or memory-mapped) or a whole {@link FileChannel}. In that case bytes are
+ * scanned directly: markup is pure ASCII, so only multi-byte sequences inside text and
+ * attribute values are decoded and no {@link java.nio.charset.CharsetDecoder} is involved.
+ * <p>
+ * Runs of text, attribute values, comments and CDATA are scanned up to the next delimiter
+ * and appended in bulk rather than char by char. Reader input is consumed in blocks for that reason,
+ * so the reader may be read past the end of the document.
+ * <p>
+ * Handlers that know their vocabulary up front can implement {@link SymbolDocHandler} and get
+ * names resolved against a {@link SymbolTable}, receiving int ids they can switch on. Names are hashed
+ * as they're scanned and looked up once, element names that aren't registered aren't copied at all.
+ * <p>
+ * From within startElement a handler may call {@link #skipElement()} or {@link #skipContent()}:
+ * the parser then runs through the element in a fast mode that only counts nesting depth,
+ * without accumulating text, decoding entities or calling the handler until the element's endElement.
+ * <p>
+ * Input can also be pushed: {@link #start(DocHandler)}, then {@link #feed(ByteBuffer)} chunks of UTF-8
+ * as they arrive (e.g. from a non-blocking channel) and {@link #finish()}. Events are reported up to the
+ * end of every chunk and the parse is suspended until the next one, so no thread is parked waiting for input.
+ * <p>
+ * Events can also be pulled one by one through a {@link QDCursor}, which runs the same state machine.
  */
 public class QDParser {
 
-    private static int popMode(SimpleStack st) {
+    private static int popMode(IntStack st) {
         if (!st.empty())
             return st.pop();
         else
@@ -44,292 +71,1236 @@ public class QDParser {
             DONE = 11,
             DOCTYPE = 14,
             PRE = 15,
-            CDATA = 16;
+            CDATA = 16,
+            // Skipping the rest of an element: only nesting depth is tracked
+            SKIP_CONTENT = 17,
+            SKIP_LT = 18,
+            SKIP_IN_TAG = 19,
+            SKIP_SLASH = 20,
+            SKIP_QUOTE = 21,
+            SKIP_END_TAG = 22,
+            SKIP_BANG = 23,
+            SKIP_COMMENT = 24,
+            SKIP_CDATA = 25,
+            SKIP_DECL = 26,
+            SKIP_PI = 27,
+            // endDocument has been reported
+            END = 28;
 
-    private final SimpleStack st;
+    private final static int
+            SKIP_NONE = 0,
+            SKIP_ELEMENT = 1,
+            SKIP_ELEMENT_CONTENT = 2;
+
+    private final static int MALFORMED = -2;
+
+    // Files are mapped in windows since a single MappedByteBuffer can't exceed 2GB
+    private final static long MAP_WINDOW = 1L << 30;
+
+    private final static long ONES = 0x0101010101010101L;
+    private final static long LOWS = 0x7F7F7F7F7F7F7F7FL;
+    private final static long HIGHS = 0x8080808080808080L;
+    private final static long CRS = ONES * '\r';
+    private final static long LFS = ONES * '\n';
+
+    private final IntStack st;
     private final StringBuilder sb;
     private final StringBuilder etag;
     private final StringBuilder tag;
+    private final char[] cbuf;
+
+    private DocHandler doc;
+    private SymbolDocHandler sdoc;
+    private SymbolTable symbols;
+    private int tagId;
+    private QDCursor cursor;
+    private boolean suspended;
+    private Reader reader;
+    private ByteBuffer bytes;
+    private FileChannel channel;
+    private long windowStart;
+    private int pending;
+    private int cpos;
+    private int clim;
+    private int skip;
+    private boolean fragment;
+    private boolean pushing;
+
+    // State of the parse, kept between feed() calls
+    private int mode;
+    private int depth;
+    private int quotec;
+    private int nameHash;
+    private int line;
+    private int col;
+    private boolean eol;
+    private int skipDepth;
+    private int skipCount;
 
+    // Partially decoded UTF-8 sequence
+    private int seqCp;
+    private int seqLeft;
+    private int seqMin;
+
+    // Instrumentation, both are null unless the parser is monitored
+    private final ParserMonitor monitor;
+    private final ParseStats stats;
+    private boolean begun;
+    private int bytesStart;
+    private long steps;
+    private long scanned;
+
+    /**
+     * @param maxStateDepth initial capacity of the state stack, which grows for documents nested deeper
+     */
     public QDParser(int maxStateDepth) {
-        this.st = new SimpleStack(maxStateDepth);
+        this(maxStateDepth, null);
+    }
+
+    /**
+     * Creates a parser reporting the figures of every parse to the monitor. Collecting them, handler timing
+     * especially, slows parsing down, so a parser created without a monitor doesn't collect anything.
+     */
+    public QDParser(int maxStateDepth, ParserMonitor monitor) {
+        this.st = new IntStack(maxStateDepth);
         this.sb = new StringBuilder();
         this.etag = new StringBuilder();
         this.tag = new StringBuilder();
+        this.cbuf = new char[8192];
+        this.monitor = monitor;
+        this.stats = monitor != null ? new ParseStats() : null;
     }
 
     public void parse(DocHandler doc, Reader reader) throws Exception {
+        this.doc = doc;
+        parse(reader);
+    }
+
+    /**
+     * Parses UTF-8 encoded document from the buffer's position up to its limit.
+     * The buffer's position is advanced past the consumed input.
+     */
+    public void parse(DocHandler doc, ByteBuffer utf8) throws Exception {
+        this.doc = doc;
+        parse(utf8);
+    }
+
+    /**
+     * Parses UTF-8 encoded document from the channel's current position, mapping the file
+     * into memory window by window.
+     */
+    public void parse(DocHandler doc, FileChannel channel) throws Exception {
+        this.doc = doc;
+        parse(channel);
+    }
+
+    /**
+     * Same as {@link #parse(DocHandler, Reader)}, but element and attribute names are resolved
+     * against the symbols and handed to the handler as ids.
+     */
+    public void parse(SymbolDocHandler doc, SymbolTable symbols, Reader reader) throws Exception {
+        this.sdoc = doc;
+        this.symbols = symbols;
+        parse(reader);
+    }
+
+    public void parse(SymbolDocHandler doc, SymbolTable symbols, ByteBuffer utf8) throws Exception {
+        this.sdoc = doc;
+        this.symbols = symbols;
+        parse(utf8);
+    }
+
+    public void parse(SymbolDocHandler doc, SymbolTable symbols, FileChannel channel) throws Exception {
+        this.sdoc = doc;
+        this.symbols = symbols;
+        parse(channel);
+    }
+
+    /**
+     * Starts push parsing: the document is then handed over chunk by chunk with {@link #feed(ByteBuffer)}
+     * as the bytes arrive, and {@link #finish()} is called once the input is over.
+     */
+    public void start(DocHandler doc) throws Exception {
+        this.doc = doc;
+        start();
+    }
+
+    public void start(SymbolDocHandler doc, SymbolTable symbols) throws Exception {
+        this.sdoc = doc;
+        this.symbols = symbols;
+        start();
+    }
+
+    /**
+     * Parses the next chunk of UTF-8 input reporting events up to its end. Tokens and multi-byte sequences
+     * cut by the end of the chunk are kept and completed by the following chunks.
+     * The chunk is consumed entirely, unless the document ends before that.
+     *
+     * @return true once the document is complete and no more input is needed
+     */
+    public boolean feed(ByteBuffer utf8) throws Exception {
+        if (!pushing)
+            throw new IllegalStateException("Push parsing wasn't started");
+        input(utf8);
+        boolean ok = false;
+        try {
+            run();
+            ok = true;
+        } finally {
+            input(null);
+            if (!ok)
+                stop();
+        }
+        return mode == DONE || mode == END;
+    }
+
+    /**
+     * Ends push parsing, checking the document is complete.
+     */
+    public void finish() throws Exception {
+        if (!pushing)
+            throw new IllegalStateException("Push parsing wasn't started");
+        try {
+            end();
+        } finally {
+            stop();
+        }
+    }
+
+    private void start() throws Exception {
+        pushing = true;
+        boolean ok = false;
+        try {
+            begin();
+            ok = true;
+        } finally {
+            if (!ok)
+                stop();
+        }
+    }
+
+    private void stop() {
+        pushing = false;
+        release();
+    }
+
+    private void parse(Reader reader) throws Exception {
+        this.reader = reader;
+        try {
+            parse();
+        } finally {
+            this.reader = null;
+            release();
+        }
+    }
+
+    private void parse(ByteBuffer utf8) throws Exception {
+        input(utf8);
+        this.pending = 0;
+        try {
+            parse();
+        } finally {
+            input(null);
+            release();
+        }
+    }
+
+    private void parse(FileChannel channel) throws Exception {
+        this.channel = channel;
+        this.pending = 0;
+        try {
+            this.windowStart = channel.position();
+            input(channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                    Math.min(MAP_WINDOW, channel.size() - windowStart)));
+            parse();
+            channel.position(windowStart + bytes.position());
+        } finally {
+            input(null);
+            this.channel = null;
+            release();
+        }
+    }
+
+    /**
+     * In fragment mode the input may hold any number of top level elements, e.g. a run of
+     * records cut out of a bigger document. Text between them is ignored and parsing
+     * ends at the end of input rather than after the first root element.
+     */
+    public void setFragmentMode(boolean fragment) {
+        this.fragment = fragment;
+    }
+
+    /**
+     * Skips the rest of the current element: no events are reported for its attributes and content,
+     * the next event is the element's endElement. Has effect only when called from startElement.
+     */
+    public void skipElement() {
+        skip = SKIP_ELEMENT;
+    }
+
+    /**
+     * Same as {@link #skipElement()}, but the element's attributes are still reported.
+     * Has effect only when called from startElement, attributeName or attributeValue.
+     */
+    public void skipContent() {
+        if (skip == SKIP_NONE)
+            skip = SKIP_ELEMENT_CONTENT;
+    }
+
+    // Pull parsing, driven by QDCursor: the state machine is suspended after every event
+
+    void open(QDCursor cursor, Reader reader) throws Exception {
+        this.reader = reader;
+        open(cursor);
+    }
+
+    void open(QDCursor cursor, ByteBuffer utf8) throws Exception {
+        input(utf8);
+        open(cursor);
+    }
+
+    void open(QDCursor cursor, FileChannel channel) throws Exception {
+        this.channel = channel;
+        this.windowStart = channel.position();
+        input(channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                Math.min(MAP_WINDOW, channel.size() - windowStart)));
+        open(cursor);
+    }
+
+    private void open(QDCursor cursor) throws Exception {
+        this.cursor = cursor;
+        boolean ok = false;
+        try {
+            begin();
+            ok = true;
+        } finally {
+            suspended = false;
+            if (!ok)
+                closeInput();
+        }
+    }
+
+    // Runs until the cursor gets the next event, the input is closed after endDocument or an error
+    void pull() throws Exception {
+        boolean ok = false;
+        try {
+            run();
+            if (!suspended)
+                end();
+            if (mode == END && channel != null)
+                channel.position(windowStart + bytes.position());
+            ok = true;
+        } finally {
+            suspended = false;
+            if (!ok || mode == END)
+                closeInput();
+        }
+    }
+
+    // Skips the rest of the element whose start tag or attribute has just been pulled
+    void skipPulled(CharSequence name) {
+        if (mode == IN_TAG) {
+            // Attributes are still ahead
+            popMode(st);
+            skipDepth = 0;
+            mode = SKIP_IN_TAG;
+        } else if (mode != SINGLE_TAG) {
+            // The start tag is over, its name is needed for the endElement after skipping
+            tag.setLength(0);
+            tag.append(name);
+            skipDepth = 1;
+            mode = SKIP_CONTENT;
+        }
+    }
+
+    void closeInput() {
+        this.reader = null;
+        input(null);
+        this.channel = null;
+        release();
+    }
+
+    // Makes the parser as good as a new one, shrinking buffers grown beyond maxChars to the size class
+    // of their use and the state stack grown beyond maxDepth back to its initial capacity
+    void recycle(int maxChars, int initialChars, int maxDepth) {
+        closeInput();
+        fragment = false;
+        skip = SKIP_NONE;
+        trim(sb, maxChars, initialChars);
+        trim(etag, maxChars, initialChars);
+        trim(tag, maxChars, initialChars);
+        st.clear(maxDepth);
+    }
+
+    // Size classes are initialChars 2^k, the buffer goes to the largest one within both maxChars and its use
+    private static void trim(StringBuilder b, int maxChars, int initialChars) {
+        b.setLength(0);
+        if (b.capacity() > maxChars) {
+            // A StringBuilder doubles as it grows, so at least half of it was needed
+            int use = Math.min(b.capacity() / 2, maxChars);
+            b.trimToSize();
+            b.ensureCapacity(use < initialChars ? initialChars : initialChars * Integer.highestOneBit(use / initialChars));
+        }
+    }
+
+    private void release() {
+        if (begun) {
+            begun = false;
+            report();
+        }
+        this.pushing = false;
+        this.cursor = null;
+        this.doc = null;
+        this.sdoc = null;
+        this.symbols = null;
+    }
+
+    private void parse() throws Exception {
+        begin();
+        run();
+        end();
+    }
+
+    private void begin() throws Exception {
+        if (stats != null) {
+            stats.reset();
+            steps = scanned = 0;
+            begun = true;
+        }
+        long t = stats != null ? System.nanoTime() : 0;
         st.clear();
         sb.setLength(0);
         etag.setLength(0);
         tag.setLength(0);
+        cpos = clim = 0;
+        pending = 0;
+        seqLeft = 0;
+        skip = SKIP_NONE;
 
-        int c;
-        int depth = 0;
-        int mode = PRE;
-        int quotec = '"';
-
-        doc.startDocument();
-        int line = 1, col = 0;
-        boolean eol = false;
-        while ((c = reader.read()) != -1) {
-            // We need to map \r, \r\n, and \n to \n
-            // See XML spec section 2.11
-            if (c == '\n' && eol) {
-                eol = false;
-                continue;
-            } else if (eol) {
-                eol = false;
-            } else if (c == '\n') {
-                line++;
-                col = 0;
-            } else if (c == '\r') {
-                eol = true;
-                c = '\n';
-                line++;
-                col = 0;
-            } else {
-                col++;
-            }
+        this.depth = 0;
+        this.skipDepth = 0;
+        this.skipCount = 0;
+        this.mode = PRE;
+        this.quotec = '"';
+        this.line = 1;
+        this.col = 0;
+        this.eol = false;
 
-            if (mode == DONE) {
-                doc.endDocument();
-                return;
+        fireStartDocument();
+        if (stats != null)
+            stats.parseNanos += System.nanoTime() - t;
+    }
 
-                // We are between tags collecting text.
-            } else if (mode == TEXT) {
-                if (c == '<') {
-                    st.push(mode);
-                    mode = START_TAG;
-                    if (sb.length() > 0) {
-                        doc.text(sb);
-                        sb.setLength(0);
-                    }
-                } else if (c == '&') {
-                    st.push(mode);
-                    mode = ENTITY;
-                    etag.setLength(0);
-                } else
-                    sb.append((char) c);
-
-                // we are processing a closing tag: e.g. </foo>
-            } else if (mode == CLOSE_TAG) {
-                if (c == '>') {
-                    mode = popMode(st);
-                    tag.setLength(0);
-                    tag.append(sb);
-                    sb.setLength(0);
-                    depth--;
-                    if (depth == 0)
-                        mode = DONE;
-                    doc.endElement(tag);
-                } else {
-                    sb.append((char) c);
-                }
+    private void end() throws Exception {
+        if (mode == END)
+            return;
+        if (seqLeft != 0)
+            exc("Malformed UTF-8 input", line, col);
+        if (mode == DONE || fragment && depth == 0 && (mode == PRE || mode == TEXT)) {
+            long t = stats != null ? System.nanoTime() : 0;
+            mode = END;
+            fireEndDocument();
+            if (stats != null)
+                stats.parseNanos += System.nanoTime() - t;
+        } else {
+            exc("missing end tag", line, col);
+        }
+    }
 
-                // we are processing CDATA
-            } else if (mode == CDATA) {
-                if (c == '>' && endsWith(sb, "]]")) {
-                    sb.setLength(sb.length() - 2);
-                    doc.text(sb);
-                    sb.setLength(0);
-                    mode = popMode(st);
-                } else
-                    sb.append((char) c);
-
-                // we are processing a comment.  We are inside
-                // the <!-- .... --> looking for the -->.
-            } else if (mode == COMMENT) {
-                if (c == '>' && endsWith(sb, "--")) {
-                    sb.setLength(0);
-                    mode = popMode(st);
-                } else
-                    sb.append((char) c);
-
-                // We are outside the root tag element
-            } else if (mode == PRE) {
-                if (c == '<') {
-                    mode = TEXT;
-                    st.push(mode);
-                    mode = START_TAG;
-                }
+    // Switches UTF-8 input, counting what was consumed from the previous buffer
+    private void input(ByteBuffer utf8) {
+        if (stats != null && bytes != null)
+            stats.bytes += bytes.position() - bytesStart;
+        bytes = utf8;
+        if (utf8 != null)
+            bytesStart = utf8.position();
+    }
 
-                // We are inside one of these <? ... ?>
-                // or one of these <!DOCTYPE ... >
-            } else if (mode == DOCTYPE) {
-                if (c == '>') {
-                    mode = popMode(st);
-                    if (mode == TEXT) mode = PRE;
-                }
+    private void report() {
+        stats.chars = steps + scanned;
+        stats.completed = mode == END;
+        monitor.parsed(stats);
+    }
 
-                // we have just seen a < and
-                // are wondering what we are looking at
-                // <foo>, </foo>, <!-- ... --->, etc.
-            } else if (mode == START_TAG) {
-                mode = popMode(st);
-                if (c == '/') {
-                    st.push(mode);
-                    mode = CLOSE_TAG;
-                } else if (c == '?') {
-                    mode = DOCTYPE;
-                } else {
-                    st.push(mode);
-                    mode = OPEN_TAG;
-                    tag.setLength(0);
-                    sb.append((char) c);
+    /**
+     * Runs the state machine until the input is over. The state lives in fields between runs,
+     * so the parse can be resumed once more input arrives, but is kept in locals while running.
+     */
+    private void run() throws Exception {
+        int c;
+        int depth = this.depth;
+        int skipDepth = this.skipDepth;
+        int skipCount = this.skipCount;
+        int mode = this.mode;
+        int quotec = this.quotec;
+        int nameHash = this.nameHash;
+        int line = this.line, col = this.col;
+        boolean eol = this.eol;
+        long steps = 0;
+        long t = stats != null ? System.nanoTime() : 0;
+        try {
+            loop:
+            while (mode != END && !suspended) {
+                if ((c = read()) < 0) {
+                    if (c == MALFORMED)
+                        exc("Malformed UTF-8 input", line, col);
+                    break;
                 }
-
-                // we are processing an entity, e.g. &lt;, &#187;, etc.
-            } else if (mode == ENTITY) {
-                if (c == ';') {
-                    mode = popMode(st);
-                    if (equalsTo(etag, "lt"))
-                        sb.append('<');
-                    else if (equalsTo(etag, "gt"))
-                        sb.append('>');
-                    else if (equalsTo(etag, "amp"))
-                        sb.append('&');
-                    else if (equalsTo(etag, "quot"))
-                        sb.append('"');
-                    else if (equalsTo(etag, "apos"))
-                        sb.append('\'');
-                        // Could parse hex entities if we wanted to
-                    else if(startsWith(etag, "#x"))
-                        sb.append((char) parseInt(etag, 2, 16));
-                    else if (startsWith(etag, "#"))
-                        sb.append((char) parseInt(etag, 1, 10));
-                        // Insert custom entity definitions here
-                    else
-                        exc("Unknown entity: &" + etag + ";", line, col);
-
-                    etag.setLength(0);
+                steps++;
+                // We need to map \r, \r\n, and \n to \n
+                // See XML spec section 2.11
+                if (c == '\n' && eol) {
+                    eol = false;
+                    continue;
+                } else if (eol) {
+                    eol = false;
+                } else if (c == '\n') {
+                    line++;
+                    col = 0;
+                } else if (c == '\r') {
+                    eol = true;
+                    c = '\n';
+                    line++;
+                    col = 0;
                 } else {
-                    etag.append((char) c);
+                    col++;
                 }
 
-                // we have just seen something like this:
-                // <foo a="b"/
-                // and are looking for the final >.
-            } else if (mode == SINGLE_TAG) {
-                if (tag.length() == 0) {
-                    tag.append(sb);
-                }
-                if (c != '>') {
-                    exc("Expected > for tag: <" + tag + "/>", line, col);
-                }
-                doc.endElement(tag);
-                if (depth == 0) {
-                    doc.endDocument();
-                    return;
-                }
-                sb.setLength(0);
-                tag.setLength(0);
-                mode = popMode(st);
-
-                // we are processing something
-                // like this <foo ... >.  It could
-                // still be a <!-- ... --> or something.
-            } else if (mode == OPEN_TAG) {
-                if (c == '>') {
-                    if (tag.length() == 0) {
-                        tag.append(sb);
-                    }
-                    sb.setLength(0);
-                    depth++;
-                    doc.startElement(tag);
-                    tag.setLength(0);
-                    mode = popMode(st);
-                } else if (c == '/') {
-                    doc.startElement(tag);
-                    mode = SINGLE_TAG;
-                } else if (c == '-' && equalsTo(sb, "!-")) {
-                    mode = COMMENT;
-                } else if (c == '[' && equalsTo(sb, "![CDATA")) {
-                    mode = CDATA;
-                    sb.setLength(0);
-                } else if (c == 'E' && equalsTo(sb, "!DOCTYP")) {
-                    sb.setLength(0);
-                    mode = DOCTYPE;
-                } else if (Character.isWhitespace((char) c)) {
-                    tag.setLength(0);
-                    tag.append(sb);
-                    sb.setLength(0);
-                    doc.startElement(tag);
-                    mode = IN_TAG;
-                } else {
-                    sb.append((char) c);
-                }
+                switch (mode) {
+                    case DONE:
+                        mode = END;
+                        fireEndDocument();
+                        break loop;
 
-                // We are processing the quoted right-hand side
-                // of an element's attribute.
-            } else if (mode == QUOTE) {
-                if (c == quotec) {
-                    doc.attributeValue(sb);
-                    sb.setLength(0);
-                    mode = IN_TAG;
-                    // See section the XML spec, section 3.3.3
-                    // on normalization processing.
-                } else if (" \r\n\u0009".indexOf(c) >= 0) {
-                    sb.append(' ');
-                } else if (c == '&') {
-                    st.push(mode);
-                    mode = ENTITY;
-                    etag.setLength(0);
-                } else {
-                    sb.append((char) c);
-                }
+                    // We are between tags collecting text.
+                    case TEXT:
+                        if (c == '<') {
+                            st.push(mode);
+                            mode = START_TAG;
+                            if (sb.length() > 0) {
+                                fireText(sb);
+                                sb.setLength(0);
+                            }
+                        } else if (c == '&') {
+                            st.push(mode);
+                            mode = ENTITY;
+                            etag.setLength(0);
+                        } else {
+                            sb.append((char) c);
+                            if (!eol)
+                                col += scanRun('<', '&', '&');
+                        }
+                        break;
 
-            } else if (mode == ATTRIBUTE_RVALUE) {
-                if (c == '"' || c == '\'') {
-                    quotec = c;
-                    mode = QUOTE;
-                } else if (Character.isWhitespace((char) c)) {
-                    ;
-                } else {
-                    exc("Error in attribute processing", line, col);
-                }
+                    // we are processing a closing tag: e.g. </foo>
+                    case CLOSE_TAG:
+                        if (c == '>') {
+                            mode = popMode(st);
+                            takeTag(nameHash);
+                            sb.setLength(0);
+                            depth--;
+                            if (depth == 0)
+                                mode = fragment ? PRE : DONE;
+                            fireEndElement(tag);
+                        } else {
+                            sb.append((char) c);
+                            nameHash = 31 * nameHash + c;
+                        }
+                        break;
 
-            } else if (mode == ATTRIBUTE_LVALUE) {
-                if (Character.isWhitespace((char) c)) {
-                    doc.attributeName(sb);
-                    sb.setLength(0);
-                    mode = ATTRIBUTE_EQUAL;
-                } else if (c == '=') {
-                    doc.attributeName(sb);
-                    sb.setLength(0);
-                    mode = ATTRIBUTE_RVALUE;
-                } else {
-                    sb.append((char) c);
-                }
+                    // we are processing CDATA
+                    case CDATA:
+                        if (c == '>' && endsWith(sb, "]]")) {
+                            sb.setLength(sb.length() - 2);
+                            fireText(sb);
+                            sb.setLength(0);
+                            mode = popMode(st);
+                        } else {
+                            sb.append((char) c);
+                            if (!eol)
+                                col += scanRun('>', '>', '>');
+                        }
+                        break;
 
-            } else if (mode == ATTRIBUTE_EQUAL) {
-                if (c == '=') {
-                    mode = ATTRIBUTE_RVALUE;
-                } else if (Character.isWhitespace((char) c)) {
-                    // Ignore
-                } else {
-                    exc("Error in attribute processing.", line, col);
-                }
+                    // we are processing a comment.  We are inside
+                    // the <!-- .... --> looking for the -->.
+                    case COMMENT:
+                        if (c == '>' && endsWith(sb, "--")) {
+                            sb.setLength(0);
+                            mode = popMode(st);
+                            if (fragment && depth == 0)
+                                mode = PRE;
+                        } else {
+                            sb.append((char) c);
+                            if (!eol)
+                                col += scanRun('>', '>', '>');
+                        }
+                        break;
 
-            } else if (mode == IN_TAG) {
-                if (c == '>') {
-                    mode = popMode(st);
-                    depth++;
-                    tag.setLength(0);
-                } else if (c == '/') {
-                    mode = SINGLE_TAG;
-                } else if (Character.isWhitespace((char) c)) {
-                    // Ignore
-                } else {
-                    mode = ATTRIBUTE_LVALUE;
-                    sb.append((char) c);
+                    // We are outside the root tag element
+                    case PRE:
+                        if (c == '<') {
+                            mode = TEXT;
+                            st.push(mode);
+                            mode = START_TAG;
+                        }
+                        break;
+
+                    // We are inside one of these <? ... ?>
+                    // or one of these <!DOCTYPE ... >
+                    case DOCTYPE:
+                        if (c == '>') {
+                            mode = popMode(st);
+                            if (mode == TEXT) mode = PRE;
+                        }
+                        break;
+
+                    // we have just seen a < and
+                    // are wondering what we are looking at
+                    // <foo>, </foo>, <!-- ... --->, etc.
+                    case START_TAG:
+                        mode = popMode(st);
+                        if (c == '/') {
+                            st.push(mode);
+                            mode = CLOSE_TAG;
+                            nameHash = 0;
+                        } else if (c == '?') {
+                            mode = DOCTYPE;
+                        } else {
+                            st.push(mode);
+                            mode = OPEN_TAG;
+                            tag.setLength(0);
+                            sb.append((char) c);
+                            nameHash = c;
+                        }
+                        break;
+
+                    // we are processing an entity, e.g. &lt;, &#187;, etc.
+                    case ENTITY:
+                        if (c == ';') {
+                            if (stats != null)
+                                stats.entity(st.size());
+                            mode = popMode(st);
+                            if (equalsTo(etag, "lt"))
+                                sb.append('<');
+                            else if (equalsTo(etag, "gt"))
+                                sb.append('>');
+                            else if (equalsTo(etag, "amp"))
+                                sb.append('&');
+                            else if (equalsTo(etag, "quot"))
+                                sb.append('"');
+                            else if (equalsTo(etag, "apos"))
+                                sb.append('\'');
+                                // Could parse hex entities if we wanted to
+                            else if(startsWith(etag, "#x"))
+                                sb.append((char) parseInt(etag, 2, 16));
+                            else if (startsWith(etag, "#"))
+                                sb.append((char) parseInt(etag, 1, 10));
+                                // Insert custom entity definitions here
+                            else
+                                exc("Unknown entity: &" + etag + ";", line, col);
+
+                            etag.setLength(0);
+                        } else {
+                            etag.append((char) c);
+                        }
+                        break;
+
+                    // we have just seen something like this:
+                    // <foo a="b"/
+                    // and are looking for the final >.
+                    case SINGLE_TAG:
+                        if (c != '>') {
+                            exc("Expected > for tag: <" + tag + "/>", line, col);
+                        }
+                        sb.setLength(0);
+                        mode = popMode(st);
+                        if (depth == 0)
+                            mode = fragment ? PRE : DONE;
+                        fireEndElement(tag);
+                        tag.setLength(0);
+                        break;
+
+                    // we are processing something
+                    // like this <foo ... >.  It could
+                    // still be a <!-- ... --> or something.
+                    case OPEN_TAG:
+                        if (c == '>') {
+                            takeTag(nameHash);
+                            sb.setLength(0);
+                            depth++;
+                            fireStartElement(tag);
+                            mode = popMode(st);
+                            if (skip != SKIP_NONE) {
+                                skip = SKIP_NONE;
+                                skipDepth = 1;
+                                mode = SKIP_CONTENT;
+                            } else {
+                                tag.setLength(0);
+                            }
+                        } else if (c == '/') {
+                            takeTag(nameHash);
+                            fireStartElement(tag);
+                            skip = SKIP_NONE;
+                            mode = SINGLE_TAG;
+                        } else if (c == '-' && equalsTo(sb, "!-")) {
+                            mode = COMMENT;
+                        } else if (c == '[' && equalsTo(sb, "![CDATA")) {
+                            mode = CDATA;
+                            sb.setLength(0);
+                        } else if (c == 'E' && equalsTo(sb, "!DOCTYP")) {
+                            sb.setLength(0);
+                            mode = DOCTYPE;
+                        } else if (Character.isWhitespace((char) c)) {
+                            takeTag(nameHash);
+                            sb.setLength(0);
+                            fireStartElement(tag);
+                            mode = IN_TAG;
+                            if (skip == SKIP_ELEMENT) {
+                                skip = SKIP_NONE;
+                                popMode(st);
+                                skipDepth = 0;
+                                mode = SKIP_IN_TAG;
+                            }
+                        } else {
+                            sb.append((char) c);
+                            nameHash = 31 * nameHash + c;
+                        }
+                        break;
+
+                    // We are processing the quoted right-hand side
+                    // of an element's attribute.
+                    case QUOTE:
+                        if (c == quotec) {
+                            fireAttributeValue(sb);
+                            sb.setLength(0);
+                            mode = IN_TAG;
+                            // See section the XML spec, section 3.3.3
+                            // on normalization processing.
+                        } else if (" \r\n\u0009".indexOf(c) >= 0) {
+                            sb.append(' ');
+                        } else if (c == '&') {
+                            st.push(mode);
+                            mode = ENTITY;
+                            etag.setLength(0);
+                        } else {
+                            sb.append((char) c);
+                            if (!eol)
+                                col += scanRun(quotec, '&', '\t');
+                        }
+                        break;
+
+                    case ATTRIBUTE_RVALUE:
+                        if (c == '"' || c == '\'') {
+                            quotec = c;
+                            mode = QUOTE;
+                        } else if (Character.isWhitespace((char) c)) {
+                            ;
+                        } else {
+                            exc("Error in attribute processing", line, col);
+                        }
+                        break;
+
+                    case ATTRIBUTE_LVALUE:
+                        if (Character.isWhitespace((char) c)) {
+                            fireAttributeName(sb, nameHash);
+                            sb.setLength(0);
+                            mode = ATTRIBUTE_EQUAL;
+                        } else if (c == '=') {
+                            fireAttributeName(sb, nameHash);
+                            sb.setLength(0);
+                            mode = ATTRIBUTE_RVALUE;
+                        } else {
+                            sb.append((char) c);
+                            nameHash = 31 * nameHash + c;
+                        }
+                        break;
+
+                    case ATTRIBUTE_EQUAL:
+                        if (c == '=') {
+                            mode = ATTRIBUTE_RVALUE;
+                        } else if (Character.isWhitespace((char) c)) {
+                            // Ignore
+                        } else {
+                            exc("Error in attribute processing.", line, col);
+                        }
+                        break;
+
+                    case IN_TAG:
+                        if (c == '>') {
+                            mode = popMode(st);
+                            depth++;
+                            if (skip != SKIP_NONE) {
+                                skip = SKIP_NONE;
+                                skipDepth = 1;
+                                mode = SKIP_CONTENT;
+                            } else {
+                                tag.setLength(0);
+                            }
+                        } else if (c == '/') {
+                            skip = SKIP_NONE;
+                            mode = SINGLE_TAG;
+                        } else if (Character.isWhitespace((char) c)) {
+                            // Ignore
+                        } else {
+                            mode = ATTRIBUTE_LVALUE;
+                            sb.append((char) c);
+                            nameHash = c;
+                        }
+                        break;
+
+                    // We are skipping an element's content, looking for the next tag
+                    case SKIP_CONTENT:
+                        if (c == '<')
+                            mode = SKIP_LT;
+                        else if (!eol)
+                            col += skipRun('<', '<', '<');
+                        break;
+
+                    case SKIP_LT:
+                        if (c == '/') {
+                            mode = SKIP_END_TAG;
+                        } else if (c == '!') {
+                            mode = SKIP_BANG;
+                        } else if (c == '?') {
+                            skipCount = 0;
+                            mode = SKIP_PI;
+                        } else {
+                            mode = SKIP_IN_TAG;
+                        }
+                        break;
+
+                    // Inside a start tag, either the skipped element's one or a nested one
+                    case SKIP_IN_TAG:
+                        if (c == '>') {
+                            if (skipDepth == 0)
+                                depth++;
+                            skipDepth++;
+                            mode = SKIP_CONTENT;
+                        } else if (c == '/') {
+                            mode = SKIP_SLASH;
+                        } else if (c == '"' || c == '\'') {
+                            quotec = c;
+                            mode = SKIP_QUOTE;
+                        }
+                        break;
+
+                    case SKIP_QUOTE:
+                        if (c == quotec)
+                            mode = SKIP_IN_TAG;
+                        else if (!eol)
+                            col += skipRun(quotec, quotec, quotec);
+                        break;
+
+                    case SKIP_SLASH:
+                        if (c == '>') {
+                            if (skipDepth == 0) {
+                                // The skipped element itself was an empty one
+                                mode = depth > 0 ? TEXT : fragment ? PRE : DONE;
+                                fireEndElement(tag);
+                                tag.setLength(0);
+                            } else {
+                                mode = SKIP_CONTENT;
+                            }
+                        } else {
+                            mode = SKIP_IN_TAG;
+                        }
+                        break;
+
+                    case SKIP_END_TAG:
+                        if (c == '>') {
+                            if (--skipDepth == 0) {
+                                depth--;
+                                mode = depth > 0 ? TEXT : fragment ? PRE : DONE;
+                                fireEndElement(tag);
+                                tag.setLength(0);
+                            } else {
+                                mode = SKIP_CONTENT;
+                            }
+                        }
+                        break;
+
+                    // <!-- ... -->, <![CDATA[ ... ]]> or a declaration
+                    case SKIP_BANG:
+                        skipCount = 0;
+                        if (c == '-')
+                            mode = SKIP_COMMENT;
+                        else if (c == '[')
+                            mode = SKIP_CDATA;
+                        else
+                            mode = SKIP_DECL;
+                        break;
+
+                    case SKIP_COMMENT:
+                        if (c == '-') {
+                            skipCount++;
+                        } else if (c == '>' && skipCount >= 2) {
+                            mode = SKIP_CONTENT;
+                        } else {
+                            skipCount = 0;
+                            if (!eol)
+                                col += skipRun('-', '-', '-');
+                        }
+                        break;
+
+                    case SKIP_CDATA:
+                        if (c == ']') {
+                            skipCount++;
+                        } else if (c == '>' && skipCount >= 2) {
+                            mode = SKIP_CONTENT;
+                        } else {
+                            skipCount = 0;
+                            if (!eol)
+                                col += skipRun(']', ']', ']');
+                        }
+                        break;
+
+                    case SKIP_PI:
+                        if (c == '>' && skipCount == 1) {
+                            mode = SKIP_CONTENT;
+                        } else {
+                            skipCount = c == '?' ? 1 : 0;
+                        }
+                        break;
+
+                    case SKIP_DECL:
+                        if (c == '>')
+                            mode = SKIP_CONTENT;
+                        break;
                 }
             }
+        } finally {
+            this.depth = depth;
+            this.skipDepth = skipDepth;
+            this.skipCount = skipCount;
+            this.mode = mode;
+            this.quotec = quotec;
+            this.nameHash = nameHash;
+            this.line = line;
+            this.col = col;
+            this.eol = eol;
+            this.steps += steps;
+            if (stats != null)
+                stats.parseNanos += System.nanoTime() - t;
+        }
+    }
+
+    /**
+     * Appends the run of characters up to the next delimiter (either of d1, d2, d3 or a line break)
+     * to sb in bulk, leaving the delimiter itself unread. Returns the length of the run.
+     */
+    private int scanRun(int d1, int d2, int d3) throws IOException {
+        if (bytes != null)
+            return scanBytes(d1, d2, d3);
+
+        int n = 0;
+        char[] buf = cbuf;
+        while (cpos < clim || fill()) {
+            int start = cpos, i = start, lim = clim;
+            while (i < lim) {
+                char ch = buf[i];
+                if (ch == d1 || ch == d2 || ch == d3 || ch == '\r' || ch == '\n')
+                    break;
+                i++;
+            }
+            sb.append(buf, start, i - start);
+            n += i - start;
+            cpos = i;
+            if (i < lim)
+                break;
+        }
+        scanned += n;
+        return n;
+    }
+
+    /**
+     * Same as scanRun, but the run is just skipped rather than appended to sb.
+     */
+    private int skipRun(int d1, int d2, int d3) throws IOException {
+        if (bytes != null)
+            return skipBytes(d1, d2, d3);
+
+        int n = 0;
+        char[] buf = cbuf;
+        while (cpos < clim || fill()) {
+            int start = cpos, i = start, lim = clim;
+            while (i < lim) {
+                char ch = buf[i];
+                if (ch == d1 || ch == d2 || ch == d3 || ch == '\r' || ch == '\n')
+                    break;
+                i++;
+            }
+            n += i - start;
+            cpos = i;
+            if (i < lim)
+                break;
+        }
+        scanned += n;
+        return n;
+    }
+
+    // Delimiters are ASCII and never occur inside multi-byte sequences, so these are skipped without decoding
+    private int skipBytes(int d1, int d2, int d3) {
+        if (pending != 0)
+            return 0;
+        ByteBuffer in = bytes;
+        int start = in.position(), pos = start, lim = in.limit();
+        boolean le = in.order() == ByteOrder.LITTLE_ENDIAN;
+        long m1 = ONES * d1, m2 = ONES * d2, m3 = ONES * d3;
+        boolean found = false;
+        while (lim - pos >= 8) {
+            long w = in.getLong(pos);
+            long hit = zeros(w ^ m1) | zeros(w ^ m2) | zeros(w ^ m3) | zeros(w ^ CRS) | zeros(w ^ LFS);
+            if (hit != 0) {
+                pos += (le ? Long.numberOfTrailingZeros(hit) : Long.numberOfLeadingZeros(hit)) >>> 3;
+                found = true;
+                break;
+            }
+            pos += 8;
         }
-        if (mode == DONE)
+        while (!found && pos < lim) {
+            int b = in.get(pos);
+            if (b == d1 || b == d2 || b == d3 || b == '\r' || b == '\n')
+                found = true;
+            else
+                pos++;
+        }
+        if (!found) {
+            // Don't leave the input in the middle of a multi-byte sequence, read() decodes it instead
+            while (pos > start && (in.get(pos - 1) & 0xC0) == 0x80)
+                pos--;
+            if (pos > start && in.get(pos - 1) < 0)
+                pos--;
+        }
+        in.position(pos);
+        scanned += pos - start;
+        return pos - start;
+    }
+
+    // Same as scanRun, but over ASCII bytes, 8 at a time. Stops at the first non-ASCII byte as well
+    private int scanBytes(int d1, int d2, int d3) {
+        if (pending != 0)
+            return 0;
+        ByteBuffer in = bytes;
+        int start = in.position(), pos = start, lim = in.limit();
+        boolean le = in.order() == ByteOrder.LITTLE_ENDIAN;
+        long m1 = ONES * d1, m2 = ONES * d2, m3 = ONES * d3;
+        while (lim - pos >= 8) {
+            long w = in.getLong(pos);
+            long hit = (w & HIGHS) | zeros(w ^ m1) | zeros(w ^ m2) | zeros(w ^ m3) | zeros(w ^ CRS) | zeros(w ^ LFS);
+            if (hit != 0) {
+                pos += (le ? Long.numberOfTrailingZeros(hit) : Long.numberOfLeadingZeros(hit)) >>> 3;
+                lim = pos;
+                break;
+            }
+            pos += 8;
+        }
+        while (pos < lim) {
+            int b = in.get(pos);
+            if (b < 0 || b == d1 || b == d2 || b == d3 || b == '\r' || b == '\n')
+                break;
+            pos++;
+        }
+
+        char[] buf = cbuf;
+        for (int from = start; from < pos; ) {
+            int n = Math.min(pos - from, buf.length);
+            for (int i = 0; i < n; i++)
+                buf[i] = (char) in.get(from + i);
+            sb.append(buf, 0, n);
+            from += n;
+        }
+        in.position(pos);
+        scanned += pos - start;
+        return pos - start;
+    }
+
+    // Has 0x80 set exactly in the zero bytes of w
+    private static long zeros(long w) {
+        return ~(((w & LOWS) + LOWS) | w | LOWS);
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = reader.read(cbuf, 0, cbuf.length);
+        } while (n == 0);
+        if (n < 0)
+            return false;
+        cpos = 0;
+        clim = n;
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (bytes == null) {
+            if (cpos == clim && !fill())
+                return -1;
+            return cbuf[cpos++];
+        }
+        if (pending != 0) {
+            int c = pending;
+            pending = 0;
+            return c;
+        }
+        if (seqLeft != 0)
+            return continueUtf8();
+        if (!bytes.hasRemaining() && !nextWindow())
+            return -1;
+        int b = bytes.get();
+        if (b >= 0)
+            return b;
+        return decodeUtf8(b);
+    }
+
+    private int decodeUtf8(int b) throws IOException {
+        if ((b & 0xE0) == 0xC0) {
+            seqCp = b & 0x1F;
+            seqLeft = 1;
+            seqMin = 0x80;
+        } else if ((b & 0xF0) == 0xE0) {
+            seqCp = b & 0x0F;
+            seqLeft = 2;
+            seqMin = 0x800;
+        } else if ((b & 0xF8) == 0xF0) {
+            seqCp = b & 0x07;
+            seqLeft = 3;
+            seqMin = 0x10000;
+        } else {
+            return MALFORMED;
+        }
+        return continueUtf8();
+    }
+
+    // Decodes the rest of a multi-byte sequence, supplementary characters are returned as surrogate pairs.
+    // When pushed input ends in the middle of the sequence, it is completed by the next chunk
+    private int continueUtf8() throws IOException {
+        while (seqLeft > 0) {
+            if (!bytes.hasRemaining() && !nextWindow())
+                return pushing ? -1 : MALFORMED;
+            int cb = bytes.get();
+            if ((cb & 0xC0) != 0x80)
+                return MALFORMED;
+            seqCp = (seqCp << 6) | (cb & 0x3F);
+            seqLeft--;
+        }
+        int cp = seqCp;
+        if (cp < seqMin || cp > Character.MAX_CODE_POINT || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE))
+            return MALFORMED;
+        if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            pending = Character.lowSurrogate(cp);
+            return Character.highSurrogate(cp);
+        }
+        return cp;
+    }
+
+    // Maps the next file window starting at the current position, if parsing a channel
+    private boolean nextWindow() throws IOException {
+        if (channel == null)
+            return false;
+        long pos = windowStart + bytes.position();
+        long size = channel.size();
+        if (pos >= size)
+            return false;
+        input(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, size - pos)));
+        windowStart = pos;
+        return true;
+    }
+
+    // Moves the element name scanned into sb to tag. For a SymbolDocHandler it's resolved here, once,
+    // by the hash taken while scanning, and names it can't switch on aren't copied: their tag stays empty
+    private void takeTag(int hash) {
+        tag.setLength(0);
+        if (sdoc != null) {
+            tagId = symbols.lookup(sb, hash);
+            if (tagId == SymbolTable.UNKNOWN)
+                return;
+        }
+        tag.append(sb);
+    }
+
+    private void fireStartDocument() throws Exception {
+        long t = stats != null ? stats.event() : 0;
+        if (cursor != null)
+            suspended = cursor.event(QDCursor.START_DOCUMENT, null);
+        else if (sdoc != null)
+            sdoc.startDocument();
+        else
+            doc.startDocument();
+        if (stats != null)
+            stats.handled(t);
+    }
+
+    private void fireEndDocument() throws Exception {
+        long t = stats != null ? stats.event() : 0;
+        if (cursor != null)
+            suspended = cursor.event(QDCursor.END_DOCUMENT, null);
+        else if (sdoc != null)
+            sdoc.endDocument();
+        else
             doc.endDocument();
+        if (stats != null)
+            stats.handled(t);
+    }
+
+    private void fireStartElement(StringBuilder tag) throws Exception {
+        long t = stats != null ? stats.startElement(st.size()) : 0;
+        if (cursor != null)
+            suspended = cursor.event(QDCursor.START_ELEMENT, tag);
+        else if (sdoc != null)
+            sdoc.startElement(tagId, tag);
         else
-            exc("missing end tag", line, col);
+            doc.startElement(tag);
+        if (stats != null)
+            stats.handled(t);
+    }
+
+    private void fireEndElement(StringBuilder tag) throws Exception {
+        long t = stats != null ? stats.endElement() : 0;
+        if (cursor != null)
+            suspended = cursor.event(QDCursor.END_ELEMENT, tag);
+        else if (sdoc != null)
+            sdoc.endElement(tagId, tag);
+        else
+            doc.endElement(tag);
+        if (stats != null)
+            stats.handled(t);
+    }
+
+    private void fireText(StringBuilder str) throws Exception {
+        long t = stats != null ? stats.text(str.length()) : 0;
+        if (cursor != null)
+            suspended = cursor.event(QDCursor.TEXT, str);
+        else if (sdoc != null)
+            sdoc.text(str);
+        else
+            doc.text(str);
+        if (stats != null)
+            stats.handled(t);
+    }
+
+    private void fireAttributeName(StringBuilder name, int hash) {
+        long t = stats != null ? stats.attributeName() : 0;
+        if (cursor != null)
+            suspended = cursor.event(QDCursor.ATTRIBUTE_NAME, name);
+        else if (sdoc != null)
+            sdoc.attributeName(symbols.lookup(name, hash), name);
+        else
+            doc.attributeName(name);
+        if (stats != null)
+            stats.handled(t);
+    }
+
+    private void fireAttributeValue(StringBuilder value) {
+        long t = stats != null ? stats.attributeValue(value.length()) : 0;
+        if (cursor != null)
+            suspended = cursor.event(QDCursor.ATTRIBUTE, value);
+        else if (sdoc != null)
+            sdoc.attributeValue(value);
+        else
+            doc.attributeValue(value);
+        if (stats != null)
+            stats.handled(t);
     }
 
     private static void exc(String s, int line, int col)
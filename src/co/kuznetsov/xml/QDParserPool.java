@@ -0,0 +1,133 @@
+package co.kuznetsov.xml;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free pool of parsers for servers parsing on many threads, an alternative to a parser per request
+ * or per thread. Parsers are handed out as try-with-resources handles:
+ * <pre>
+ * try (QDParserPool.PooledParser parser = pool.acquire()) {
+ *     parser.parse(handler, utf8);
+ * }
+ * </pre>
+ * Idle parsers sit in an array of slots, every thread starts looking for one at its own slot, so threads
+ * rarely compete for the same slot. When all the slots are empty a new parser is created, a parser released
+ * while all the slots are taken is left to GC.
+ * <p>
+ * A document with huge texts grows the parser's buffers. On release a buffer above maxRetainedChars is shrunk
+ * to the size class of its use: buffers double as they grow, so half the capacity was needed, and the class is
+ * the largest initialChars 2^k within that and maxRetainedChars. One oversized document doesn't pin its memory
+ * in the pool, and a parser that keeps seeing large documents doesn't regrow from scratch. Buffers within
+ * maxRetainedChars are kept as they are. Likewise the state stack, grown by a document nested deeper than
+ * maxStateDepth, goes back to that capacity.
+ */
+public class QDParserPool {
+    private final AtomicReferenceArray<PooledParser> slots;
+    private final int mask;
+    private final int maxStateDepth;
+    private final ParserMonitor monitor;
+    private final int maxRetainedChars;
+    private final int initialChars;
+
+    public QDParserPool(int size, int maxStateDepth) {
+        this(size, maxStateDepth, null, 64 * 1024, 256);
+    }
+
+    /**
+     * @param size             maximum number of idle parsers, rounded up to a power of two
+     * @param monitor          monitor of the pooled parsers or null
+     * @param maxRetainedChars capacity a parser's buffer may keep when released
+     * @param initialChars     smallest size class, buffers above maxRetainedChars are shrunk to the largest
+     *                         initialChars 2^k within maxRetainedChars and half their capacity
+     */
+    public QDParserPool(int size, int maxStateDepth, ParserMonitor monitor, int maxRetainedChars, int initialChars) {
+        if (size <= 0)
+            throw new IllegalArgumentException("Pool size must be positive: " + size);
+        if (initialChars <= 0)
+            throw new IllegalArgumentException("initialChars must be positive: " + initialChars);
+        if (initialChars > maxRetainedChars)
+            throw new IllegalArgumentException("initialChars exceeds maxRetainedChars");
+        int n = Integer.highestOneBit(size);
+        if (n < size)
+            n <<= 1;
+        this.slots = new AtomicReferenceArray<>(n);
+        this.mask = n - 1;
+        this.maxStateDepth = maxStateDepth;
+        this.monitor = monitor;
+        this.maxRetainedChars = maxRetainedChars;
+        this.initialChars = initialChars;
+    }
+
+    /**
+     * Takes an idle parser or creates a new one. It has to be closed to get back into the pool.
+     */
+    public PooledParser acquire() {
+        int start = probe();
+        for (int i = 0; i <= mask; i++) {
+            int slot = (start + i) & mask;
+            if (slots.get(slot) != null) {
+                PooledParser p = slots.getAndSet(slot, null);
+                if (p != null) {
+                    p.leased = true;
+                    return p;
+                }
+            }
+        }
+        PooledParser p = new PooledParser(this);
+        p.leased = true;
+        return p;
+    }
+
+    /**
+     * Number of idle parsers, for monitoring.
+     */
+    public int idle() {
+        int n = 0;
+        for (int i = 0; i <= mask; i++) {
+            if (slots.get(i) != null)
+                n++;
+        }
+        return n;
+    }
+
+    private void release(PooledParser p) {
+        p.recycle(maxRetainedChars, initialChars, maxStateDepth);
+        int start = probe();
+        for (int i = 0; i <= mask; i++) {
+            int slot = (start + i) & mask;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, p))
+                return;
+        }
+    }
+
+    // Spreads threads over the slots, virtual threads included
+    private int probe() {
+        int h = (int) Thread.currentThread().threadId() * 0x9E3779B9;
+        return (h ^ h >>> 16) & mask;
+    }
+
+    /**
+     * Parser leased from the pool, closing it puts it back. It must not be used after that.
+     */
+    public static final class PooledParser extends QDParser implements AutoCloseable {
+        private final QDParserPool pool;
+        private boolean leased;
+
+        private PooledParser(QDParserPool pool) {
+            super(pool.maxStateDepth, pool.monitor);
+            this.pool = pool;
+        }
+
+        /**
+         * Gives the parser back to the pool, abandoning a push or cursor parse left unfinished.
+         * Closing it twice does nothing.
+         */
+        @Override
+        public void close() {
+            if (leased) {
+                leased = false;
+                pool.release(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package co.kuznetsov.xml;
+
+import co.kuznetsov.util.ByteBufferUtils;
+import co.kuznetsov.util.IntStack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streaming XML writer, the counterpart of {@link QDParser}. Writes UTF-8 straight into a {@link ByteBuffer}
+ * which either grows as needed or is flushed to a {@link WritableByteChannel} when full.
+ * <p>
+ * Text and attribute values are escaped, numbers are written without going through String.
+ * Open element names are kept in an internal buffer, so {@link #endElement()} needs no argument
+ * and elements without content are closed as {@code <foo/>}.
+ * <p>
+ * The instances of QDWriter are non-thread safe. Once warmed up they don't create any garbage.
+ */
+public class QDWriter {
+
+    private final static int
+            NAME = 0,
+            TEXT = 1,
+            ATTRIBUTE = 2;
+
+    // Longest escape sequence or UTF-8 encoded char
+    private final static int MAX_CHAR_BYTES = 6;
+    // Longest decimal long
+    private final static int MAX_NUMBER_BYTES = 20;
+    // Longest shortest decimal double
+    private final static int MAX_DOUBLE_BYTES = 24;
+    // Fits the XML declaration
+    private final static int MIN_BUFFER = 64;
+
+    private final static byte[][] TEXT_ESCAPES = new byte[128][];
+    private final static byte[][] ATTRIBUTE_ESCAPES = new byte[128][];
+
+    static {
+        TEXT_ESCAPES['&'] = ATTRIBUTE_ESCAPES['&'] = bytes("&amp;");
+        TEXT_ESCAPES['<'] = ATTRIBUTE_ESCAPES['<'] = bytes("&lt;");
+        TEXT_ESCAPES['>'] = ATTRIBUTE_ESCAPES['>'] = bytes("&gt;");
+        ATTRIBUTE_ESCAPES['"'] = bytes("&quot;");
+        // Otherwise the parser would normalize them to spaces
+        ATTRIBUTE_ESCAPES['\t'] = bytes("&#9;");
+        ATTRIBUTE_ESCAPES['\n'] = bytes("&#10;");
+        ATTRIBUTE_ESCAPES['\r'] = bytes("&#13;");
+        TEXT_ESCAPES['\r'] = bytes("&#13;");
+    }
+
+    private final static byte[] DECLARATION = bytes("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    private final static byte[] CDATA_START = bytes("<![CDATA[");
+    private final static byte[] CDATA_END = bytes("]]>");
+
+    private final WritableByteChannel channel;
+    private final IntStack open;
+    private final StringBuilder names = new StringBuilder();
+    private ByteBuffer out;
+    private boolean inStartTag;
+
+    /**
+     * Writes into a buffer that grows as needed, either a heap or a direct one.
+     */
+    public QDWriter(int initialCapacity, boolean direct, int maxDepth) {
+        this.channel = null;
+        this.out = direct ? ByteBuffer.allocateDirect(initialCapacity) : ByteBuffer.allocate(initialCapacity);
+        this.open = new IntStack(maxDepth);
+    }
+
+    /**
+     * Writes into the buffer, flushing it to the channel whenever it fills up. The channel has to be blocking,
+     * see {@link #flush()}.
+     */
+    public QDWriter(WritableByteChannel channel, ByteBuffer buffer, int maxDepth) {
+        if (buffer.capacity() < MIN_BUFFER)
+            throw new IllegalArgumentException("Buffer is too small: " + buffer.capacity());
+        this.channel = channel;
+        this.out = buffer;
+        this.open = new IntStack(maxDepth);
+    }
+
+    /**
+     * The buffer written so far, positioned at its end. In growable mode it is replaced as it grows,
+     * so it has to be fetched once writing is over.
+     */
+    public ByteBuffer getBuffer() {
+        return out;
+    }
+
+    /**
+     * Discards the output and the open elements, so the writer can start over.
+     */
+    public void reset() {
+        out.clear();
+        open.clear();
+        names.setLength(0);
+        inStartTag = false;
+    }
+
+    public QDWriter startDocument() throws IOException {
+        room(DECLARATION.length);
+        out.put(DECLARATION);
+        return this;
+    }
+
+    /**
+     * Closes all the elements still open and flushes the output to the channel, if any.
+     */
+    public QDWriter endDocument() throws IOException {
+        while (!open.empty())
+            endElement();
+        flush();
+        return this;
+    }
+
+    public QDWriter startElement(CharSequence name) throws IOException {
+        closeStartTag();
+        open.push(names.length());
+        names.append(name);
+        room(1);
+        out.put((byte) '<');
+        write(name, 0, name.length(), NAME);
+        inStartTag = true;
+        return this;
+    }
+
+    public QDWriter endElement() throws IOException {
+        int start = open.pop();
+        if (inStartTag) {
+            room(2);
+            out.put((byte) '/').put((byte) '>');
+            inStartTag = false;
+        } else {
+            room(2);
+            out.put((byte) '<').put((byte) '/');
+            write(names, start, names.length(), NAME);
+            room(1);
+            out.put((byte) '>');
+        }
+        names.setLength(start);
+        return this;
+    }
+
+    public QDWriter attribute(CharSequence name, CharSequence value) throws IOException {
+        attributeName(name);
+        write(value, 0, value.length(), ATTRIBUTE);
+        room(1);
+        out.put((byte) '"');
+        return this;
+    }
+
+    public QDWriter attribute(CharSequence name, int value) throws IOException {
+        attributeName(name);
+        room(MAX_NUMBER_BYTES + 1);
+        ByteBufferUtils.writeIntAsString(out, value);
+        out.put((byte) '"');
+        return this;
+    }
+
+    public QDWriter attribute(CharSequence name, long value) throws IOException {
+        attributeName(name);
+        room(MAX_NUMBER_BYTES + 1);
+        ByteBufferUtils.writeLongAsString(out, value);
+        out.put((byte) '"');
+        return this;
+    }
+
+    public QDWriter attribute(CharSequence name, double value) throws IOException {
+        attributeName(name);
+        room(MAX_DOUBLE_BYTES + 1);
+        ByteBufferUtils.writeDoubleAsString(out, value);
+        out.put((byte) '"');
+        return this;
+    }
+
+    public QDWriter attribute(CharSequence name, float value) throws IOException {
+        attributeName(name);
+        room(MAX_DOUBLE_BYTES + 1);
+        ByteBufferUtils.writeFloatAsString(out, value);
+        out.put((byte) '"');
+        return this;
+    }
+
+    public QDWriter text(CharSequence text) throws IOException {
+        closeStartTag();
+        write(text, 0, text.length(), TEXT);
+        return this;
+    }
+
+    public QDWriter text(CharSequence text, int start, int end) throws IOException {
+        closeStartTag();
+        write(text, start, end, TEXT);
+        return this;
+    }
+
+    public QDWriter text(int value) throws IOException {
+        closeStartTag();
+        room(MAX_NUMBER_BYTES);
+        ByteBufferUtils.writeIntAsString(out, value);
+        return this;
+    }
+
+    public QDWriter text(long value) throws IOException {
+        closeStartTag();
+        room(MAX_NUMBER_BYTES);
+        ByteBufferUtils.writeLongAsString(out, value);
+        return this;
+    }
+
+    public QDWriter text(double value) throws IOException {
+        closeStartTag();
+        room(MAX_DOUBLE_BYTES);
+        ByteBufferUtils.writeDoubleAsString(out, value);
+        return this;
+    }
+
+    public QDWriter text(float value) throws IOException {
+        closeStartTag();
+        room(MAX_DOUBLE_BYTES);
+        ByteBufferUtils.writeFloatAsString(out, value);
+        return this;
+    }
+
+    /**
+     * Writes the text as a CDATA section, which must not contain "]]>".
+     */
+    public QDWriter cdata(CharSequence text) throws IOException {
+        closeStartTag();
+        room(CDATA_START.length);
+        out.put(CDATA_START);
+        write(text, 0, text.length(), NAME);
+        room(CDATA_END.length);
+        out.put(CDATA_END);
+        return this;
+    }
+
+    /**
+     * Writes the buffered output to the channel. Does nothing in growable mode. A non-blocking channel
+     * could accept nothing over and over, so it isn't written to.
+     *
+     * @throws IllegalBlockingModeException if the channel is in non-blocking mode, the output stays buffered
+     */
+    public void flush() throws IOException {
+        if (channel == null)
+            return;
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking())
+            throw new IllegalBlockingModeException();
+        out.flip();
+        while (out.hasRemaining())
+            channel.write(out);
+        out.clear();
+    }
+
+    private void attributeName(CharSequence name) throws IOException {
+        if (!inStartTag)
+            throw new IllegalStateException("Attribute outside of a start tag: " + name);
+        room(1);
+        out.put((byte) ' ');
+        write(name, 0, name.length(), NAME);
+        room(2);
+        out.put((byte) '=').put((byte) '"');
+    }
+
+    private void closeStartTag() throws IOException {
+        if (inStartTag) {
+            room(1);
+            out.put((byte) '>');
+            inStartTag = false;
+        }
+    }
+
+    private void write(CharSequence s, int start, int end, int mode) throws IOException {
+        byte[][] escapes = mode == TEXT ? TEXT_ESCAPES : mode == ATTRIBUTE ? ATTRIBUTE_ESCAPES : null;
+        ByteBuffer out = this.out;
+        for (int i = start; i < end; i++) {
+            if (out.remaining() < MAX_CHAR_BYTES)
+                out = room(MAX_CHAR_BYTES);
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                byte[] e = escapes != null ? escapes[c] : null;
+                if (e == null)
+                    out.put((byte) c);
+                else
+                    out.put(e);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | c >> 6));
+                out.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | cp >> 18));
+                out.put((byte) (0x80 | cp >> 12 & 0x3F));
+                out.put((byte) (0x80 | cp >> 6 & 0x3F));
+                out.put((byte) (0x80 | cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate can't be encoded
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | c >> 12));
+                out.put((byte) (0x80 | c >> 6 & 0x3F));
+                out.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    // Makes sure there are at least n bytes left in the buffer, returns the buffer to write to
+    private ByteBuffer room(int n) throws IOException {
+        if (out.remaining() >= n)
+            return out;
+        if (channel != null) {
+            flush();
+            return out;
+        }
+        int capacity = Math.max(out.capacity() * 2, out.position() + n);
+        ByteBuffer grown = out.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        out.flip();
+        grown.put(out);
+        out = grown;
+        return out;
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) s.charAt(i);
+        return b;
+    }
+}
@@ -0,0 +1,12 @@
+package co.kuznetsov.xml;
+
+/**
+ * Receives values selected by a {@link PathSelector}, in document order.
+ */
+public interface SelectionHandler {
+    /**
+     * @param selector index of the matching path, as passed to {@link PathSelector#PathSelector(String...)}
+     * @param value    attribute value or the element's text; only valid during the call
+     */
+    public void selected(int selector, StringBuilder value);
+}
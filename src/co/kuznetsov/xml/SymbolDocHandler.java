@@ -0,0 +1,16 @@
+package co.kuznetsov.xml;
+
+/**
+ * Same events as {@link DocHandler}, but element and attribute names come along with
+ * their {@link SymbolTable} id, or {@link SymbolTable#UNKNOWN} for names that aren't registered.
+ * The parser doesn't copy element names it couldn't resolve, the tag of an UNKNOWN element is empty.
+ */
+public interface SymbolDocHandler {
+    public void startElement(int id, StringBuilder tag) throws Exception;
+    public void endElement(int id, StringBuilder tag) throws Exception;
+    public void startDocument() throws Exception;
+    public void endDocument() throws Exception;
+    public void text(StringBuilder str) throws Exception;
+    public void attributeName(int id, StringBuilder name);
+    public void attributeValue(StringBuilder value);
+}
@@ -0,0 +1,134 @@
+package co.kuznetsov.xml;
+
+import java.util.Arrays;
+
+/**
+ * Vocabulary of tag and attribute names known to a handler. Every registered name gets
+ * a dense int id (0, 1, 2, ...), so {@link SymbolDocHandler} implementations can switch
+ * on ids instead of comparing the parser's buffers against string constants.
+ * <p>
+ * Lookups are a single open-addressing hash probe and don't create any garbage. The hash is
+ * String's, so {@link QDParser} computes it char by char while scanning a name, the lookup then
+ * only compares the name against the entry it probes.
+ * The table is meant to be populated up front: once populated it can be shared
+ * between threads and parsers, but {@link #add(String)} itself is not thread safe.
+ */
+public final class SymbolTable {
+    public final static int UNKNOWN = -1;
+
+    private char[][] names;
+    private int[] hashes;
+    private int[] slots;
+    private int size;
+
+    public SymbolTable() {
+        this.names = new char[8][];
+        this.hashes = new int[8];
+        this.slots = new int[16];
+    }
+
+    public SymbolTable(String... names) {
+        this();
+        for (String name : names) {
+            add(name);
+        }
+    }
+
+    /**
+     * Registers the name, returning its id. Registering a name twice returns the same id.
+     */
+    public int add(String name) {
+        int id = lookup(name);
+        if (id != UNKNOWN) {
+            return id;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        id = size++;
+        names[id] = name.toCharArray();
+        hashes[id] = spread(name.hashCode());
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            insert(slots, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return id of the name or {@link #UNKNOWN} if it was never registered
+     */
+    public int lookup(CharSequence name) {
+        return lookup(name, hash(name));
+    }
+
+    /**
+     * Same as {@link #lookup(CharSequence)} with the name's String hash already computed.
+     */
+    int lookup(CharSequence name, int hash) {
+        int h = spread(hash);
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0) {
+                return UNKNOWN;
+            }
+            int id = slot - 1;
+            if (hashes[id] == h && matches(names[id], name)) {
+                return id;
+            }
+        }
+    }
+
+    public String name(int id) {
+        return new String(names[id]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        int[] newSlots = new int[capacity];
+        for (int id = 0; id < size; id++) {
+            insert(newSlots, id);
+        }
+        slots = newSlots;
+    }
+
+    private void insert(int[] slots, int id) {
+        int mask = slots.length - 1;
+        int i = hashes[id] & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = id + 1;
+    }
+
+    private static boolean matches(char[] name, CharSequence s) {
+        if (name.length != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (name[i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(CharSequence s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    // Names often differ only in the last chars
+    private static int spread(int h) {
+        return h ^ (h >>> 16) ^ (h >>> 7);
+    }
+}
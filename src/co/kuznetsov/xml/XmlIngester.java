@@ -0,0 +1,171 @@
+package co.kuznetsov.xml;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Parses many documents concurrently, e.g. the files of a directory or messages off a queue.
+ * <p>
+ * Documents are pulled from the source lazily and at most maxInFlight of them are being parsed or waiting
+ * for a thread at any time, so a huge or endless source doesn't pile up in memory. A document that fails
+ * to parse is recorded in the {@link IngestResult} and doesn't affect the others. Parsers come from
+ * a {@link QDParserPool}, tasks don't create their own.
+ * <p>
+ * Virtual threads suit documents read from files or sockets, a bounded platform pool suits CPU bound
+ * parsing of documents already in memory.
+ */
+public class XmlIngester implements AutoCloseable {
+
+    /**
+     * How a document of some kind is handed to the parser.
+     */
+    public interface Input<D> {
+        void parse(QDParser parser, DocHandler handler, D document) throws Exception;
+    }
+
+    // Smaller files are read into heap buffers, bigger ones are mapped
+    private final static long MAP_THRESHOLD = 1 << 20;
+
+    /**
+     * Files, read whole or mapped when big. Either way only the channel opened for the size is read.
+     */
+    public final static Input<Path> PATHS = (parser, handler, path) -> {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                parser.parse(handler, channel);
+            } else {
+                ByteBuffer utf8 = ByteBuffer.allocate((int) size);
+                while (utf8.hasRemaining()) {
+                    // Less than the size seen if the file was truncated meanwhile
+                    if (channel.read(utf8) < 0)
+                        break;
+                }
+                parser.parse(handler, utf8.flip());
+            }
+        }
+    };
+
+    /**
+     * UTF-8 buffers, their positions are advanced past the documents.
+     */
+    public final static Input<ByteBuffer> BUFFERS = (parser, handler, utf8) -> parser.parse(handler, utf8);
+
+    /**
+     * Channels read from their current positions, they are left open.
+     */
+    public final static Input<FileChannel> CHANNELS = (parser, handler, channel) -> parser.parse(handler, channel);
+
+    private final ExecutorService executor;
+    private final QDParserPool parsers;
+    private final int maxInFlight;
+    private final int maxFailures;
+
+    private XmlIngester(ExecutorService executor, QDParserPool parsers, int maxInFlight, int maxFailures) {
+        if (maxInFlight <= 0)
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        this.executor = executor;
+        this.parsers = parsers;
+        this.maxInFlight = maxInFlight;
+        this.maxFailures = maxFailures;
+    }
+
+    /**
+     * Parses every document on its own virtual thread.
+     *
+     * @param maxFailures how many failures the result keeps, all of them are counted
+     */
+    public static XmlIngester virtualThreads(QDParserPool parsers, int maxInFlight, int maxFailures) {
+        return new XmlIngester(Executors.newVirtualThreadPerTaskExecutor(), parsers, maxInFlight, maxFailures);
+    }
+
+    /**
+     * Parses documents on a fixed pool of platform threads.
+     */
+    public static XmlIngester platformThreads(QDParserPool parsers, int threads, int maxInFlight, int maxFailures) {
+        return new XmlIngester(Executors.newFixedThreadPool(threads), parsers, maxInFlight, maxFailures);
+    }
+
+    /**
+     * Parses all the documents, returning once every one of them is done. Handlers are created per document
+     * and called on the parsing threads.
+     */
+    public <D> IngestResult<D> ingest(Iterator<? extends D> documents, Input<? super D> input,
+                                      Function<? super D, ? extends DocHandler> handlers) throws InterruptedException {
+        long start = System.nanoTime();
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        long count = 0;
+        LongAdder failed = new LongAdder();
+        List<IngestResult.Failure<D>> failures = new ArrayList<>();
+        try {
+            while (true) {
+                // The permit first, so a lazy source isn't asked for a document beyond the limit
+                inFlight.acquire();
+                boolean submitted = false;
+                try {
+                    if (!documents.hasNext())
+                        break;
+                    D document = documents.next();
+                    count++;
+                    executor.execute(() -> {
+                        try {
+                            parse(document, input, handlers);
+                        } catch (Throwable e) {
+                            // Errors thrown by handlers fail the document just the same
+                            failed.increment();
+                            synchronized (failures) {
+                                if (failures.size() < maxFailures)
+                                    failures.add(new IngestResult.Failure<>(document, e));
+                            }
+                            if (e instanceof VirtualMachineError)
+                                throw (VirtualMachineError) e;
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                    submitted = true;
+                } finally {
+                    // The task releases its own permit
+                    if (!submitted)
+                        inFlight.release();
+                }
+            }
+        } finally {
+            // Whatever happened to the caller, tasks in flight have to finish before returning
+            inFlight.acquireUninterruptibly(maxInFlight);
+            inFlight.release(maxInFlight);
+        }
+        return new IngestResult<>(count, failed.sum(), System.nanoTime() - start, failures);
+    }
+
+    public <D> IngestResult<D> ingest(Iterable<? extends D> documents, Input<? super D> input,
+                                      Function<? super D, ? extends DocHandler> handlers) throws InterruptedException {
+        return ingest(documents.iterator(), input, handlers);
+    }
+
+    private <D> void parse(D document, Input<? super D> input,
+                           Function<? super D, ? extends DocHandler> handlers) throws Exception {
+        DocHandler handler = handlers.apply(document);
+        try (QDParserPool.PooledParser parser = parsers.acquire()) {
+            input.parse(parser, handler, document);
+        }
+    }
+
+    /**
+     * Shuts the threads down, ingestions in progress are completed first.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
@@ -0,0 +1,118 @@
+package co.kuznetsov.xml.bind;
+
+import co.kuznetsov.xml.SymbolDocHandler;
+import co.kuznetsov.xml.SymbolTable;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Handler filling records of an {@link XmlBinder}, to be used with the binder's symbols.
+ * Every complete record is handed to the consumer. Records may be given back with {@link #release(Object)}
+ * once consumed, they are then reused for the following ones.
+ * <p>
+ * Text of a bound element is converted as a whole, so it's expected to come in one piece:
+ * a comment or CDATA in the middle of a number splits it.
+ * <p>
+ * Not thread safe, records have to be released on the parsing thread.
+ */
+public final class RecordHandler<T> implements SymbolDocHandler {
+    private final XmlBinder<T> binder;
+    private final Consumer<? super T> consumer;
+    private final ArrayDeque<T> pool;
+    private final int maxPooled;
+    private final int record;
+
+    private T current;
+    private int depth;
+    private int element = SymbolTable.UNKNOWN;
+    private MethodHandle text;
+    private MethodHandle attribute;
+
+    RecordHandler(XmlBinder<T> binder, Consumer<? super T> consumer, int maxPooled) {
+        this.binder = binder;
+        this.consumer = consumer;
+        this.pool = new ArrayDeque<>(maxPooled);
+        this.maxPooled = maxPooled;
+        this.record = binder.getRecord();
+    }
+
+    /**
+     * Gives the record back for reuse, its fields are reset before that.
+     */
+    public void release(T record) {
+        if (pool.size() < maxPooled)
+            pool.push(record);
+    }
+
+    public void startElement(int id, StringBuilder tag) throws Exception {
+        text = null;
+        if (current == null) {
+            if (id == record) {
+                current = acquire();
+                depth = 1;
+                element = id;
+            }
+            return;
+        }
+        depth++;
+        element = depth == 2 ? id : SymbolTable.UNKNOWN;
+        if (element != SymbolTable.UNKNOWN)
+            text = binder.element(element);
+    }
+
+    public void endElement(int id, StringBuilder tag) throws Exception {
+        if (current == null)
+            return;
+        text = null;
+        element = SymbolTable.UNKNOWN;
+        if (--depth == 0) {
+            T r = current;
+            current = null;
+            consumer.accept(r);
+        }
+    }
+
+    public void startDocument() throws Exception {
+        current = null;
+        text = null;
+        attribute = null;
+        element = SymbolTable.UNKNOWN;
+    }
+
+    public void endDocument() throws Exception {
+    }
+
+    public void text(StringBuilder str) throws Exception {
+        if (text != null)
+            set(text, str);
+    }
+
+    public void attributeName(int id, StringBuilder name) {
+        attribute = element != SymbolTable.UNKNOWN && id != SymbolTable.UNKNOWN ? binder.attribute(element, id) : null;
+    }
+
+    public void attributeValue(StringBuilder value) {
+        if (attribute != null)
+            set(attribute, value);
+    }
+
+    private T acquire() {
+        T r = pool.poll();
+        if (r == null)
+            r = binder.newInstance();
+        binder.reset(r);
+        return r;
+    }
+
+    private void set(MethodHandle setter, StringBuilder value) {
+        try {
+            setter.invokeExact((Object) current, value);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package co.kuznetsov.xml.bind;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds the field to an attribute of the record element, or of its child element if one is named.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface XmlAttribute {
+    String value();
+
+    String element() default "";
+}
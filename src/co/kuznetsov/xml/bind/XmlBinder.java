@@ -0,0 +1,304 @@
+package co.kuznetsov.xml.bind;
+
+import co.kuznetsov.xml.SymbolTable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.function.Consumer;
+
+import static co.kuznetsov.util.StringBuilderUtils.equalsTo;
+import static co.kuznetsov.util.StringBuilderUtils.parseDouble;
+import static co.kuznetsov.util.StringBuilderUtils.parseFloat;
+import static co.kuznetsov.util.StringBuilderUtils.parseInt;
+import static co.kuznetsov.util.StringBuilderUtils.parseLong;
+
+/**
+ * Binds XML records to instances of a class annotated with {@link XmlRecord}, the fields to fill are marked
+ * with {@link XmlElement} and {@link XmlAttribute}.
+ * <p>
+ * The class is inspected once, at bind time: every field gets a method handle that converts the parser's
+ * StringBuilder and stores the value, so primitives are set without any intermediate String.
+ * Supported field types are the primitives, String and StringBuilder. A StringBuilder field has to be
+ * initialized by the class, its content is replaced by the value.
+ * <p>
+ * A binder is immutable and can be shared between threads, every parsing thread needs its own
+ * {@link RecordHandler} though.
+ * <pre>
+ * XmlBinder&lt;Trade&gt; binder = XmlBinder.bind(Trade.class, MethodHandles.lookup());
+ * RecordHandler&lt;Trade&gt; handler = binder.handler(trade -&gt; { ...; handler.release(trade); });
+ * parser.parse(handler, binder.getSymbols(), input);
+ * </pre>
+ */
+public final class XmlBinder<T> {
+
+    private final static MethodType SETTER = MethodType.methodType(void.class, Object.class, StringBuilder.class);
+    private final static MethodType RESET = MethodType.methodType(void.class, Object.class);
+
+    private final Class<T> type;
+    private final MethodHandle constructor;
+    private final SymbolTable symbols;
+    private final int record;
+    // Indexed by element id
+    private final MethodHandle[] elements;
+    // Indexed by element id * symbol count + attribute id
+    private final MethodHandle[] attributes;
+    private final MethodHandle[] resets;
+
+    private XmlBinder(Class<T> type, MethodHandles.Lookup lookup) throws ReflectiveOperationException {
+        XmlRecord r = type.getAnnotation(XmlRecord.class);
+        if (r == null)
+            throw new IllegalArgumentException(type.getName() + " isn't annotated with @XmlRecord");
+
+        this.type = type;
+        this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(Object.class));
+
+        Field[] fields = bound(type);
+        SymbolTable symbols = new SymbolTable();
+        this.record = symbols.add(r.value());
+        for (Field f : fields) {
+            XmlElement e = f.getAnnotation(XmlElement.class);
+            XmlAttribute a = f.getAnnotation(XmlAttribute.class);
+            if (e != null)
+                symbols.add(e.value());
+            if (a != null) {
+                if (!a.element().isEmpty())
+                    symbols.add(a.element());
+                symbols.add(a.value());
+            }
+        }
+        this.symbols = symbols;
+
+        int n = symbols.size();
+        this.elements = new MethodHandle[n];
+        this.attributes = new MethodHandle[n * n];
+        this.resets = new MethodHandle[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            Field f = fields[i];
+            MethodHandle setter = setter(lookup, f);
+            XmlElement e = f.getAnnotation(XmlElement.class);
+            if (e != null) {
+                put(elements, symbols.lookup(e.value()), setter, f);
+            } else {
+                XmlAttribute a = f.getAnnotation(XmlAttribute.class);
+                int element = a.element().isEmpty() ? record : symbols.lookup(a.element());
+                put(attributes, element * n + symbols.lookup(a.value()), setter, f);
+            }
+            resets[i] = reset(lookup, f);
+        }
+    }
+
+    public static <T> XmlBinder<T> bind(Class<T> type) {
+        try {
+            return bind(type, MethodHandles.privateLookupIn(type, MethodHandles.lookup()));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Can't access " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Binds the class using the lookup to access its constructor and fields, e.g. MethodHandles.lookup()
+     * of the class itself when they are private.
+     */
+    public static <T> XmlBinder<T> bind(Class<T> type, MethodHandles.Lookup lookup) {
+        try {
+            return new XmlBinder<>(type, lookup);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Can't bind " + type.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Names of the bound elements and attributes, to parse with.
+     */
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Creates a handler delivering bound records to the consumer, pooling up to maxPooled released instances.
+     */
+    public RecordHandler<T> handler(Consumer<? super T> consumer, int maxPooled) {
+        return new RecordHandler<>(this, consumer, maxPooled);
+    }
+
+    public RecordHandler<T> handler(Consumer<? super T> consumer) {
+        return handler(consumer, 16);
+    }
+
+    int getRecord() {
+        return record;
+    }
+
+    MethodHandle element(int id) {
+        return elements[id];
+    }
+
+    MethodHandle attribute(int element, int id) {
+        return attributes[element * elements.length + id];
+    }
+
+    @SuppressWarnings("unchecked")
+    T newInstance() {
+        try {
+            return (T) (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Can't create " + type.getName(), t);
+        }
+    }
+
+    // Sets all the bound fields back to zero, null or empty
+    void reset(T target) {
+        try {
+            for (MethodHandle r : resets)
+                r.invokeExact((Object) target);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static Field[] bound(Class<?> type) {
+        int n = 0;
+        Field[] declared = type.getDeclaredFields();
+        for (Field f : declared) {
+            boolean element = f.isAnnotationPresent(XmlElement.class);
+            boolean attribute = f.isAnnotationPresent(XmlAttribute.class);
+            if (element && attribute)
+                throw new IllegalArgumentException(f + " can't be both an element and an attribute");
+            if (element || attribute) {
+                // StringBuilder fields are filled in place and may be final
+                if (Modifier.isStatic(f.getModifiers())
+                        || Modifier.isFinal(f.getModifiers()) && f.getType() != StringBuilder.class)
+                    throw new IllegalArgumentException(f + " can't be bound: static or final");
+                declared[n++] = f;
+            }
+        }
+        Field[] fields = new Field[n];
+        System.arraycopy(declared, 0, fields, 0, n);
+        return fields;
+    }
+
+    private static void put(MethodHandle[] handles, int index, MethodHandle setter, Field f) {
+        if (handles[index] != null)
+            throw new IllegalArgumentException(f + " is bound to the same name as another field");
+        handles[index] = setter;
+    }
+
+    // (Object target, StringBuilder value)void converting the value to the field's type
+    private static MethodHandle setter(MethodHandles.Lookup lookup, Field f) throws ReflectiveOperationException {
+        Class<?> t = f.getType();
+        if (t == StringBuilder.class) {
+            MethodHandle copy = lookup().findStatic(XmlBinder.class, "copy",
+                    MethodType.methodType(void.class, StringBuilder.class, StringBuilder.class));
+            return MethodHandles.filterArguments(copy, 0, lookup.unreflectGetter(f)).asType(SETTER);
+        }
+        MethodHandle conversion = lookup().findStatic(XmlBinder.class, conversion(f), MethodType.methodType(t, StringBuilder.class));
+        return MethodHandles.filterArguments(lookup.unreflectSetter(f), 1, conversion).asType(SETTER);
+    }
+
+    // (Object target)void
+    private static MethodHandle reset(MethodHandles.Lookup lookup, Field f) throws ReflectiveOperationException {
+        Class<?> t = f.getType();
+        if (t == StringBuilder.class) {
+            MethodHandle clear = lookup().findStatic(XmlBinder.class, "clear",
+                    MethodType.methodType(void.class, StringBuilder.class));
+            return MethodHandles.filterArguments(clear, 0, lookup.unreflectGetter(f)).asType(RESET);
+        }
+        return MethodHandles.collectArguments(lookup.unreflectSetter(f), 1, MethodHandles.zero(t)).asType(RESET);
+    }
+
+    private static String conversion(Field f) {
+        Class<?> t = f.getType();
+        if (t == int.class)
+            return "toInt";
+        if (t == long.class)
+            return "toLong";
+        if (t == short.class)
+            return "toShort";
+        if (t == byte.class)
+            return "toByte";
+        if (t == boolean.class)
+            return "toBoolean";
+        if (t == char.class)
+            return "toChar";
+        if (t == double.class)
+            return "toDouble";
+        if (t == float.class)
+            return "toFloat";
+        if (t == String.class)
+            return "toText";
+        throw new IllegalArgumentException(f + " has unsupported type " + t.getName());
+    }
+
+    private static MethodHandles.Lookup lookup() {
+        return MethodHandles.lookup();
+    }
+
+    private static int toInt(StringBuilder sb) {
+        return parseInt(sb, 0, 10);
+    }
+
+    private static long toLong(StringBuilder sb) {
+        return parseLong(sb, 0, 10);
+    }
+
+    private static short toShort(StringBuilder sb) {
+        int v = parseInt(sb, 0, 10);
+        if (v < Short.MIN_VALUE || v > Short.MAX_VALUE)
+            throw new NumberFormatException("Value out of range: " + sb);
+        return (short) v;
+    }
+
+    private static byte toByte(StringBuilder sb) {
+        int v = parseInt(sb, 0, 10);
+        if (v < Byte.MIN_VALUE || v > Byte.MAX_VALUE)
+            throw new NumberFormatException("Value out of range: " + sb);
+        return (byte) v;
+    }
+
+    private static boolean toBoolean(StringBuilder sb) {
+        if (equalsTo(sb, "true") || equalsTo(sb, "1"))
+            return true;
+        if (equalsTo(sb, "false") || equalsTo(sb, "0"))
+            return false;
+        throw new IllegalArgumentException("Illegal boolean: " + sb);
+    }
+
+    private static char toChar(StringBuilder sb) {
+        if (sb.length() != 1)
+            throw new IllegalArgumentException("Illegal char: " + sb);
+        return sb.charAt(0);
+    }
+
+    private static double toDouble(StringBuilder sb) {
+        return parseDouble(sb, 0, sb.length());
+    }
+
+    private static float toFloat(StringBuilder sb) {
+        return parseFloat(sb, 0, sb.length());
+    }
+
+    private static String toText(StringBuilder sb) {
+        return sb.toString();
+    }
+
+    private static void copy(StringBuilder field, StringBuilder value) {
+        field.setLength(0);
+        field.append(value);
+    }
+
+    private static void clear(StringBuilder field) {
+        field.setLength(0);
+    }
+}
@@ -0,0 +1,15 @@
+package co.kuznetsov.xml.bind;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class bound by {@link XmlBinder}: every element with the given name becomes an instance of it.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface XmlRecord {
+    String value();
+}